@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams.benchmarks;
+
+import org.javasync.streams.Replayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Many threads replaying the same complete replay, which reads memoized
+ * items without locking, so throughput should scale with threads, e.g.
+ * run it with -t 1, -t 4 and -t 8.
+ *
+ * The frontier group instead has READERS threads following the frontier
+ * of a replay that is still pulling from its source, where they contend
+ * for the Recorder lock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentReplayBenchmark {
+
+    static final int READERS = 4;
+    /**
+     * Items read per invocation of frontierReplay.
+     */
+    static final int BATCH = 100;
+
+    @Param({"1000", "1000000"})
+    int size;
+
+    private Supplier<Stream<Integer>> nrs;
+
+    @Setup
+    public void memoize() {
+        nrs = Replayer.replay(IntStream.range(0, size).boxed());
+        nrs.get().forEach(n -> {});
+    }
+
+    @Benchmark
+    public long sequentialReplay() {
+        return Strategy.sum(nrs.get(), false);
+    }
+
+    @Benchmark
+    public long iteratorReplay() {
+        long sum = 0;
+        for (Iterator<Integer> iter = nrs.get().iterator(); iter.hasNext(); )
+            sum += iter.next();
+        return sum;
+    }
+
+    @Benchmark
+    @Group("frontier")
+    @GroupThreads(READERS)
+    public long frontierReplay(Frontier frontier, Reader reader) {
+        long sum = 0;
+        for (int i = 0; i < BATCH; i++) {
+            if (!reader.iter.hasNext())
+                reader.follow(frontier.next(reader.gen));
+            sum += reader.iter.next();
+        }
+        return sum;
+    }
+
+    /**
+     * A replay of size items shared by the readers of a group, which the
+     * first reader to reach its end replaces by a new one, so there is
+     * nearly always a frontier to pull from.
+     */
+    @State(Scope.Group)
+    public static class Frontier {
+        private final AtomicReference<Supplier<Stream<Integer>>> current = new AtomicReference<>();
+        private int size;
+
+        @Setup(Level.Iteration)
+        public void start(ConcurrentReplayBenchmark bench) {
+            size = bench.size;
+            current.set(replayOfSource());
+        }
+
+        Supplier<Stream<Integer>> next(Supplier<Stream<Integer>> ended) {
+            Supplier<Stream<Integer>> fresh = replayOfSource();
+            return current.compareAndSet(ended, fresh) ? fresh : current.get();
+        }
+
+        private Supplier<Stream<Integer>> replayOfSource() {
+            return Replayer.replay(IntStream.range(0, size).boxed());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        Supplier<Stream<Integer>> gen;
+        Iterator<Integer> iter;
+
+        @Setup(Level.Iteration)
+        public void attach(Frontier frontier) {
+            follow(frontier.current.get());
+        }
+
+        void follow(Supplier<Stream<Integer>> replay) {
+            gen = replay;
+            iter = replay.get().iterator();
+        }
+    }
+}
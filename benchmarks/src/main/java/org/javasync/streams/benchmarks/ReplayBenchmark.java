@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Sums the items of a replay on its first pass, which pulls them from the
+ * source, and on a later pass, which only reads memoized items.
+ *
+ * The default sizes keep a run short. Larger ones need a bigger heap, e.g.
+ * -p size=10000000,100000000 -jvmArgsAppend -Xmx16g
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReplayBenchmark {
+
+    @Param({"REPLAY", "MEMOIZE", "LIST", "FLUX"})
+    Strategy strategy;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    int size;
+
+    /**
+     * An unsized source reports no SIZED characteristic.
+     */
+    @Param({"true", "false"})
+    boolean sized;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private Strategy.Replay replay;
+
+    @Setup(Level.Trial)
+    public void memoize() {
+        replay = strategy.of(source());
+        replay.sum(parallel);
+    }
+
+    Stream<Integer> source() {
+        final int n = size;
+        return sized
+            ? IntStream.range(0, n).boxed()
+            : Stream.iterate(0, i -> i < n, i -> i + 1);
+    }
+
+    @Benchmark
+    public long firstPass() {
+        return strategy.of(source()).sum(parallel);
+    }
+
+    @Benchmark
+    public long replayPass() {
+        return replay.sum(parallel);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams.benchmarks;
+
+import org.HdrHistogram.Histogram;
+import org.javasync.streams.Replayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.lang.System.out;
+
+/**
+ * Runs 1 to N platform or virtual threads reading the same replay and
+ * reports the throughput of items read by all threads together, and the
+ * p50, p99 and p999 latency between consecutive items of each reader.
+ * Latencies include the cost of System.nanoTime() on every item.
+ *
+ * Usage: ScalabilityHarness [--threads 1,2,4,8] [--virtual]
+ *     [--pattern FRONTIER|STAGGERED|MIXED] [--size 1000000] [--rounds 10]
+ *
+ * Run it from the benchmarks jar, e.g.
+ * java -cp benchmarks/target/benchmarks.jar org.javasync.streams.benchmarks.ScalabilityHarness --virtual
+ */
+public class ScalabilityHarness {
+
+    /**
+     * How readers are arranged along the replay.
+     * The first reader always starts at the frontier on a new replay.
+     */
+    enum Pattern {
+        /**
+         * All readers start together and compete for the source.
+         */
+        FRONTIER {
+            @Override
+            long startAt(int reader, int readers, long size) {
+                return 0;
+            }
+        },
+        /**
+         * Reader i starts when the frontier reaches i * size / readers.
+         */
+        STAGGERED {
+            @Override
+            long startAt(int reader, int readers, long size) {
+                return reader * size / readers;
+            }
+        },
+        /**
+         * Odd readers start when the frontier reaches half of the size,
+         * so they replay memoized items while even readers pull new ones.
+         */
+        MIXED {
+            @Override
+            long startAt(int reader, int readers, long size) {
+                return reader % 2 == 0 ? 0 : size / 2;
+            }
+        };
+
+        abstract long startAt(int reader, int readers, long size);
+    }
+
+    private static final long HIGHEST_LATENCY = 60_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = {1, 2, 4, 8};
+        boolean virtual = false;
+        Pattern pattern = Pattern.FRONTIER;
+        long size = 1_000_000;
+        int rounds = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--virtual":
+                    virtual = true;
+                    break;
+                case "--pattern":
+                    pattern = Pattern.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--size":
+                    size = Long.parseLong(args[++i]);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        out.printf("%s readers on %s threads, %d items, %d rounds after as many warmup rounds%n",
+            pattern, virtual ? "virtual" : "platform", size, rounds);
+        out.printf("%8s %16s %10s %10s %10s %10s%n",
+            "threads", "items/s", "p50 ns", "p99 ns", "p999 ns", "max ns");
+        for (int n : threads) {
+            ExecutorService pool = newExecutor(virtual);
+            try {
+                for (int r = 0; r < rounds; r++)
+                    round(pool, n, pattern, size, new Histogram(HIGHEST_LATENCY, 3));
+                Histogram latency = new Histogram(HIGHEST_LATENCY, 3);
+                long nanos = 0;
+                for (int r = 0; r < rounds; r++)
+                    nanos += round(pool, n, pattern, size, latency);
+                double throughput = (double) n * size * rounds / nanos * 1e9;
+                out.printf("%8d %16.0f %10d %10d %10d %10d%n",
+                    n, throughput,
+                    latency.getValueAtPercentile(50),
+                    latency.getValueAtPercentile(99),
+                    latency.getValueAtPercentile(99.9),
+                    latency.getMaxValue());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Runs the given number of readers over a new replay, adds their
+     * latencies to the histogram and returns the elapsed nanoseconds.
+     */
+    static long round(ExecutorService pool, int readers, Pattern pattern, long size, Histogram latency)
+        throws Exception
+    {
+        Supplier<Stream<Long>> nrs = Replayer.replay(() -> Stream.iterate(0L, i -> i < size, i -> i + 1));
+        CountDownLatch[] starts = new CountDownLatch[readers];
+        long[] marks = new long[readers];
+        for (int i = 0; i < readers; i++) {
+            starts[i] = new CountDownLatch(i == 0 ? 0 : 1);
+            marks[i] = pattern.startAt(i, readers, size);
+        }
+        long begin = System.nanoTime();
+        List<Future<Histogram>> results = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            final int reader = i;
+            results.add(pool.submit(() -> {
+                starts[reader].await();
+                return read(nrs.get(), reader == 0 ? marks : null, starts);
+            }));
+        }
+        for (Future<Histogram> res : results)
+            latency.add(res.get());
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Reads all items recording the latency between consecutive items.
+     * The first reader also releases the others as it reaches their marks.
+     */
+    static Histogram read(Stream<Long> nrs, long[] marks, CountDownLatch[] starts) {
+        Histogram latency = new Histogram(HIGHEST_LATENCY, 3);
+        long[] last = {System.nanoTime()};
+        int[] next = {1};
+        nrs.forEach(item -> {
+            long now = System.nanoTime();
+            latency.recordValue(Math.min(now - last[0], HIGHEST_LATENCY));
+            last[0] = now;
+            if (marks != null) {
+                while (next[0] < marks.length && marks[next[0]] <= item)
+                    starts[next[0]++].countDown();
+            }
+        });
+        if (marks != null) {
+            while (next[0] < marks.length)
+                starts[next[0]++].countDown();
+        }
+        return latency;
+    }
+
+    /**
+     * A virtual thread per task, which needs Java 21, or a cached pool of
+     * platform threads.
+     */
+    static ExecutorService newExecutor(boolean virtual) throws ReflectiveOperationException {
+        if (!virtual)
+            return Executors.newCachedThreadPool();
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later!", e);
+        }
+    }
+}
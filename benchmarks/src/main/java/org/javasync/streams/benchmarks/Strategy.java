@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams.benchmarks;
+
+import org.javasync.streams.Replayer;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * The ways of replaying a stream under comparison.
+ * Each one builds a Replay that sums the items of a new traversal.
+ */
+public enum Strategy {
+    /**
+     * Replayer.replay() of this library.
+     */
+    REPLAY {
+        @Override
+        Replay of(Stream<Integer> src) {
+            Supplier<Stream<Integer>> nrs = Replayer.replay(src);
+            return parallel -> sum(nrs.get(), parallel);
+        }
+    },
+    /**
+     * The baseline of MemoizeTest.memoize(), which is not thread-safe
+     * and thus always traversed sequentially.
+     */
+    MEMOIZE {
+        @Override
+        Replay of(Stream<Integer> src) {
+            Supplier<Stream<Integer>> nrs = memoize(src);
+            return parallel -> sum(nrs.get(), false);
+        }
+    },
+    /**
+     * Collects all items into a list on the first pass.
+     */
+    LIST {
+        @Override
+        Replay of(Stream<Integer> src) {
+            AtomicReference<List<Integer>> mem = new AtomicReference<>();
+            return parallel -> {
+                if (mem.get() == null)
+                    mem.set(src.collect(toList()));
+                return sum(mem.get().stream(), parallel);
+            };
+        }
+    },
+    /**
+     * Reactor Flux.cache(), traversed on the parallel scheduler if parallel.
+     */
+    FLUX {
+        @Override
+        Replay of(Stream<Integer> src) {
+            Flux<Integer> nrs = Flux.fromStream(src).cache();
+            return parallel -> parallel
+                ? nrs.parallel().runOn(Schedulers.parallel()).map(Integer::longValue).reduce(Long::sum).block()
+                : nrs.reduce(0L, (acc, n) -> acc + n).block();
+        }
+    };
+
+    abstract Replay of(Stream<Integer> src);
+
+    @FunctionalInterface
+    interface Replay {
+        long sum(boolean parallel);
+    }
+
+    static long sum(Stream<Integer> nrs, boolean parallel) {
+        return (parallel ? nrs.parallel() : nrs).mapToLong(Integer::longValue).sum();
+    }
+
+    /**
+     * Copy of MemoizeTest.memoize(), which is a test class out of the
+     * published artifact.
+     */
+    static <T> Supplier<Stream<T>> memoize(Stream<T> src) {
+        final Spliterator<T> iter = src.spliterator();
+        final ArrayList<T> mem = new ArrayList<>();
+        class MemoizeIter extends Spliterators.AbstractSpliterator<T> {
+            MemoizeIter() { super(iter.estimateSize(), iter.characteristics()); }
+            public boolean tryAdvance(Consumer<? super T> action) {
+                return iter.tryAdvance(item -> {
+                    mem.add(item);
+                    action.accept(item);
+                });
+            }
+            public Comparator<? super T> getComparator() {
+                return iter.getComparator();
+            }
+        }
+        MemoizeIter srcIter = new MemoizeIter();
+        return () -> concat(mem.stream(), stream(srcIter, false));
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.javasync.streams;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+
+/**
+ * Manages the data source shared by all replays of a Recorder.
+ * The source is only opened on first use and each item is pulled from it
+ * at most once, by the thread holding the Recorder lock.
+ *
+ * The lock is a ReentrantLock rather than the monitor, because pulls may
+ * block on I/O, and a virtual thread blocked inside a monitor pins its
+ * carrier thread. Readers waiting at the frontier park on the lock.
+ * Subclasses memoize the pulled items and provide the replay spliterators.
+ *
+ * @param <T> the type of stream elements.
+ * @param <S> the type of the source spliterator, e.g. Spliterator.OfInt.
+ */
+abstract class AbstractRecorder<T, S extends Spliterator<T>> implements AutoCloseable {
+    private final Supplier<? extends BaseStream<T, ?>> dataSrc;
+    private BaseStream<T, ?> srcStream;
+    private S srcIter;
+    private long estimateSize;
+    private int characteristics;
+    private Comparator<? super T> comparator;
+    private volatile boolean hasNext = true;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private Prefetcher prefetcher;
+    final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Only created when ReplayMetrics.ENABLED, which guards every use.
+     */
+    final ReplayMetrics metrics;
+
+    AbstractRecorder(Supplier<? extends BaseStream<T, ?>> dataSrc) {
+        this.dataSrc = dataSrc;
+        this.metrics = ReplayMetrics.ENABLED ? new ReplayMetrics(this) : null;
+    }
+
+    /**
+     * Number of items already memoized.
+     * Readers may get any item below that size without locking.
+     */
+    abstract long size();
+
+    /**
+     * Pulls the next item from srcIter and memoizes it.
+     * Called under the Recorder lock.
+     */
+    abstract boolean pull(S srcIter);
+
+    /**
+     * Estimated bytes on the heap holding the memoized items, not counting
+     * the objects they refer to, or -1 if unknown.
+     */
+    long retainedBytes() {
+        return -1;
+    }
+
+    /**
+     * Called under the Recorder lock when srcIter has no more items,
+     * before isComplete() becomes true.
+     */
+    void onComplete() {
+    }
+
+    /**
+     * Enables background pulls from the data source, before any replay.
+     */
+    final void prefetch(Executor executor, int maxLookahead) {
+        prefetcher = new Prefetcher(this, executor, maxLookahead);
+    }
+
+    @SuppressWarnings("unchecked")
+    S getSrcIter() {
+        lock.lock();
+        try {
+            if(srcIter == null) {
+                srcStream = dataSrc.get();
+                srcIter = (S) srcStream.spliterator();
+                estimateSize = srcIter.estimateSize();
+                characteristics = srcIter.characteristics();
+                if ((characteristics & Spliterator.SORTED) != 0)
+                    comparator = srcIter.getComparator();
+                if (ReplayMetrics.ENABLED)
+                    metrics.register();
+            }
+            return srcIter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The characteristics of srcIter when it was opened, for replay
+     * spliterators to report them without locking.
+     */
+    int srcCharacteristics() {
+        return characteristics;
+    }
+
+    /**
+     * The comparator of a SORTED srcIter, snapshot when it was opened.
+     */
+    Comparator<? super T> srcComparator() {
+        if ((characteristics & Spliterator.SORTED) == 0)
+            throw new IllegalStateException();
+        return comparator;
+    }
+
+    /**
+     * The estimated size of the data source when it was opened.
+     */
+    long srcEstimateSize() {
+        getSrcIter();
+        return estimateSize;
+    }
+
+    /**
+     * True when all items of the data source are memoized.
+     */
+    boolean isComplete() {
+        return !hasNext;
+    }
+
+    boolean isClosed() {
+        return isClosed.get();
+    }
+
+    /**
+     * Tells the Prefetcher, if any, that a reader is at the given index.
+     */
+    final void demand(long index) {
+        Prefetcher p = prefetcher;
+        if (p != null)
+            p.demand(index);
+    }
+
+    /**
+     * Returns true if the item at given index is memoized after advancing
+     * srcIter, or false if the data source has no more items.
+     */
+    boolean advance(final long index) {
+        return advance(index, 1);
+    }
+
+    /**
+     * Same as advance(index) but pulling up to batch items from srcIter
+     * while holding the lock.
+     */
+    boolean advance(final long index, final int batch) {
+        if (!hasNext) // No need to lock once complete
+            return index < size();
+        Prefetcher p = prefetcher;
+        if (p != null)
+            p.miss();
+        return pull(index, batch);
+    }
+
+    /**
+     * Same as advance(index, batch) for the Prefetcher, which is not a miss.
+     */
+    final boolean prefetch(final long index, final int batch) {
+        return hasNext && pull(index, batch);
+    }
+
+    private boolean pull(final long index, final int batch) {
+        lockFrontier(index);
+        try {
+            // Another thread may have already pulled those items.
+            final long fence = index + batch;
+            final long from = size();
+            final long start = ReplayMetrics.ENABLED ? System.nanoTime() : 0;
+            ReplayEvents.SourcePull event = new ReplayEvents.SourcePull();
+            event.begin();
+            while (fence > size() && hasNext) {
+                if (!pull(getSrcIter())) {
+                    onComplete();
+                    hasNext = false;
+                    recordCompletion();
+                }
+            }
+            if (size() > from) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.batchSize = batch;
+                    event.items = size() - from;
+                    event.commit();
+                }
+                if (ReplayMetrics.ENABLED)
+                    metrics.pulled(size() - from, System.nanoTime() - start);
+            }
+            return index < size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquires the lock, recording the time waiting for another thread
+     * only if it is contended.
+     */
+    private void lockFrontier(final long index) {
+        if (lock.tryLock())
+            return;
+        final long start = ReplayMetrics.ENABLED ? System.nanoTime() : 0;
+        ReplayEvents.FrontierWait event = new ReplayEvents.FrontierWait();
+        event.begin();
+        lock.lock();
+        event.end();
+        if (event.shouldCommit()) {
+            event.index = index;
+            event.commit();
+        }
+        if (ReplayMetrics.ENABLED)
+            metrics.lockWaited(System.nanoTime() - start);
+    }
+
+    private void recordCompletion() {
+        ReplayEvents.ReplayComplete event = new ReplayEvents.ReplayComplete();
+        if (event.shouldCommit()) {
+            event.size = size();
+            event.retainedBytes = retainedBytes();
+            event.commit();
+        }
+    }
+
+    /**
+     * Bulk traversal from given index until the end of the data source.
+     * Runs of memoized items are handed to the action without locking and
+     * at the frontier items are pulled in batches, each one under a single
+     * acquisition of the lock, and only then handed to the action.
+     * Returns the index after the last item.
+     */
+    final long forEachFrom(long index, RangeAction action) {
+        int batch = BATCH_UNIT;
+        for (long fence; ; index = fence) {
+            fence = size();
+            if (index >= fence) {
+                if (!advance(index, batch))
+                    return index;
+                fence = size();
+                batch = Math.min(batch << 1, MAX_BATCH);
+            } else if (ReplayMetrics.ENABLED) {
+                metrics.hits(fence - index);
+            }
+            demand(index);
+            action.accept(index, fence);
+        }
+    }
+
+    static final int BATCH_UNIT = 16;
+    static final int MAX_BATCH = 1024;
+
+    /**
+     * Returns the fence of the memoized items from index on, which a
+     * MemoizeIter hands off on trySplit. If the index is at the frontier then
+     * it first pulls a batch of items from srcIter, as AbstractSpliterator
+     * does, but keeping them in mem rather than copying them to an array.
+     * Returns index if the data source has no more items.
+     */
+    final long splitFence(long index, int batch) {
+        long fence = size();
+        if (index >= fence) {
+            if (!advance(index, batch))
+                return index;
+            fence = size();
+        }
+        return fence;
+    }
+
+    static final int SPLIT_UNIT = 1 << 10;
+    static final int MAX_SPLIT = 1 << 25;
+
+    /**
+     * Estimated number of items from index until the end of the data source,
+     * which is exact once the data source is complete.
+     */
+    final long estimateSizeFrom(long index) {
+        long est = isComplete() ? size() : srcEstimateSize();
+        return est == Long.MAX_VALUE ? est : Math.max(est - index, 0);
+    }
+
+    /**
+     * Performs an action for each memoized item between origin (inclusive)
+     * and fence (exclusive).
+     */
+    @FunctionalInterface
+    interface RangeAction {
+        void accept(long origin, long fence);
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true) && srcStream != null) {
+            srcStream.close();
+        }
+    }
+}
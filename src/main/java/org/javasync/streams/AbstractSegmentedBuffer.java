@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.javasync.streams;
+
+import java.util.Arrays;
+
+/**
+ * An append-only buffer indexed by long and made of fixed-size segments.
+ * A segment never moves once allocated, so growing the buffer only copies
+ * the small directory of segments and never the items themselves.
+ *
+ * There is a single writer at a time, which must be externally synchronized.
+ * Readers may proceed without any lock for indexes below {@link #size()},
+ * because the writer stores the item before the volatile write of size
+ * and readers read size before the volatile read of the directory.
+ *
+ * Based on the JDK's SpinedBuffer, but with segments of equal length.
+ *
+ * @param <A> the type of a segment, e.g. Object[].
+ */
+abstract class AbstractSegmentedBuffer<A> {
+
+    static final int SEGMENT_SHIFT = 10;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile Object[] segments = new Object[8];
+    private volatile long size;
+    private int released; // Number of leading segments already released
+
+    protected abstract A newSegment(int length);
+
+    public final long size() {
+        return size;
+    }
+
+    /**
+     * Writer side. Returns the segment where to store the item at index size,
+     * allocating it if needed.
+     */
+    @SuppressWarnings("unchecked")
+    protected final A tail() {
+        long s = size;
+        int seg = segmentOf(s);
+        Object[] dir = segments;
+        if (seg == dir.length) {
+            dir = Arrays.copyOf(dir, dir.length << 1);
+            segments = dir;
+        }
+        Object tail = dir[seg];
+        if (tail == null) {
+            ReplayEvents.SegmentAllocation event = new ReplayEvents.SegmentAllocation();
+            event.begin();
+            tail = newSegment(SEGMENT_SIZE);
+            dir[seg] = tail;
+            if (event.shouldCommit()) {
+                event.segments = seg + 1;
+                event.capacity = (seg + 1L) << SEGMENT_SHIFT;
+                event.commit();
+            }
+        }
+        return (A) tail;
+    }
+
+    /**
+     * Writer side. Publishes the item stored in the tail segment.
+     */
+    protected final void commit() {
+        size = size + 1;
+    }
+
+    /**
+     * Reader side. The index must be lower than a previously read size.
+     */
+    @SuppressWarnings("unchecked")
+    protected final A segment(long index) {
+        return (A) segments[segmentOf(index)];
+    }
+
+    /**
+     * Writer side. Drops the segments wholly below fence, which must not be
+     * read anymore, so they can be garbage collected.
+     */
+    protected final void release(long fence) {
+        Object[] dir = segments;
+        int last = segmentOf(Math.min(fence, size));
+        for (; released < last; released++)
+            dir[released] = null;
+    }
+
+    /**
+     * Reader side. Returns an exact-size array with all items, which must
+     * not be more than MAX_ARRAY_SIZE.
+     */
+    final A toArray() {
+        long n = size;
+        A arr = newSegment((int) n);
+        for (long i = 0; i < n; i += SEGMENT_SIZE)
+            System.arraycopy(segment(i), 0, arr, (int) i, (int) Math.min(SEGMENT_SIZE, n - i));
+        return arr;
+    }
+
+    /**
+     * Some VMs reserve some header words in an array.
+     */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Index of the segment holding the item at given index, which is an int
+     * for any index below 2^(31 + SEGMENT_SHIFT).
+     */
+    static int segmentOf(long index) {
+        return (int) (index >>> SEGMENT_SHIFT);
+    }
+
+    static int offset(long index) {
+        return (int) index & SEGMENT_MASK;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Byte buffer segments outside the Java heap, allocated by a single writer
+ * and read without locking by any thread.
+ *
+ * An Arena is also the action that releases its segments, which a Cleaner
+ * may run, so it must not refer to its owner.
+ */
+abstract class Arena implements Runnable {
+    private volatile ByteBuffer[] segments = new ByteBuffer[8];
+    private int count;
+
+    /**
+     * Number of allocated segments.
+     */
+    final int count() {
+        return count;
+    }
+
+    abstract ByteBuffer newSegment(int capacity);
+
+    /**
+     * Writer side. Returns a new segment positioned at 0, which is published
+     * to readers before returning.
+     */
+    final ByteBuffer allocate(int capacity) {
+        ByteBuffer[] segs = segments;
+        if (count == segs.length)
+            segs = Arrays.copyOf(segs, count << 1);
+        ByteBuffer seg = newSegment(capacity);
+        segs[count++] = seg;
+        segments = segs;
+        return seg.duplicate();
+    }
+
+    /**
+     * Reader side. Readers must use absolute gets or a duplicate().
+     */
+    final ByteBuffer segment(int index) {
+        return segments[index];
+    }
+
+    /**
+     * Releases all segments. Segments cannot be read afterwards.
+     */
+    @Override
+    public void run() {
+        ByteBuffer[] segs = segments;
+        segments = new ByteBuffer[0];
+        for (ByteBuffer seg : segs)
+            if (seg != null)
+                DirectBuffers.free(seg);
+    }
+
+    /**
+     * Segments in direct byte buffers.
+     */
+    static final class Direct extends Arena {
+        @Override
+        ByteBuffer newSegment(int capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    /**
+     * Segments in memory-mapped temporary files, which are deleted when the
+     * Arena is released. Reads and writes go through the page cache.
+     */
+    static final class TempFiles extends Arena {
+        private final Path dir;
+        private final List<Path> files = new ArrayList<>();
+
+        TempFiles(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        MappedByteBuffer newSegment(int capacity) {
+            try {
+                Path file = Files.createTempFile(dir, "streamemo-", ".spill");
+                synchronized (files) {
+                    files.add(file);
+                }
+                try (FileChannel ch = FileChannel.open(file, READ, WRITE)) {
+                    return ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Unmaps the segments and deletes their files, outside the monitor
+         * since deleting may block.
+         */
+        @Override
+        public void run() {
+            super.run();
+            List<Path> deleted;
+            synchronized (files) {
+                deleted = new ArrayList<>(files);
+                files.clear();
+            }
+            for (Path file : deleted) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Memoizes the items of a Flow.Publisher as they arrive, for replays that
+ * block at the frontier and for non-blocking getAsync().
+ *
+ * It subscribes on first use and only requests items in batches of
+ * REQUEST_BATCH, as readers come within half a batch of the items already
+ * requested, so the demand towards the publisher stays bounded.
+ *
+ * There is a single writer, the publisher calling onNext, which appends
+ * under the lock. As in Recorder, readers get memoized items without
+ * locking, and stages waiting for items are completed outside the lock.
+ *
+ * getAsync() subscribes and requests on the executor, because a publisher
+ * may deliver items synchronously within request(), as StagePublisher does
+ * with a completed stage. Blocking replays request on their own thread.
+ */
+final class AsyncRecorder<T> implements Flow.Subscriber<T>, AutoCloseable {
+    static final int REQUEST_BATCH = 256;
+
+    private final Flow.Publisher<T> dataSrc;
+    private final Executor executor;
+    private final SegmentedBuffer<T> mem = new SegmentedBuffer<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    /**
+     * Stages waiting for an item, by index. Guarded by lock.
+     */
+    private final TreeMap<Long, CompletableFuture<T>> waiting = new TreeMap<>();
+    private volatile Flow.Subscription subscription;
+    /**
+     * Total number of items readers want requested, which is ahead of
+     * requested until there is a subscription. Guarded by lock.
+     */
+    private volatile long wanted;
+    private long requested;
+    private volatile boolean done;
+    private volatile Throwable failure;
+
+    AsyncRecorder(Flow.Publisher<T> dataSrc, Executor executor) {
+        this.dataSrc = Objects.requireNonNull(dataSrc);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    Spliterator<T> memIterator() {
+        return new MemoizeIter();
+    }
+
+    CompletionStage<T> getAsync(long index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Negative index " + index);
+        if (index < mem.size())
+            return CompletableFuture.completedFuture(mem.get(index));
+        if (needsDemand(index)) {
+            try {
+                executor.execute(() -> demandOrFail(index));
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedStage(e);
+            }
+        }
+        CompletableFuture<T> item;
+        lock.lock();
+        try {
+            if (index >= mem.size() && !done)
+                return waiting.computeIfAbsent(index, i -> new CompletableFuture<>()).minimalCompletionStage();
+            item = new CompletableFuture<>();
+        } finally {
+            lock.unlock();
+        }
+        complete(item, index);
+        return item.minimalCompletionStage();
+    }
+
+    /**
+     * Returns true after handing the item at given index to cons, or false
+     * if the data source has fewer items. Blocks until the item arrives.
+     */
+    boolean getOrAwait(long index, Consumer<? super T> cons) {
+        demand(index);
+        if (index >= mem.size() && !awaitItem(index))
+            return false;
+        cons.accept(mem.get(index));
+        return true;
+    }
+
+    private boolean awaitItem(long index) {
+        demand(index);
+        lock.lock();
+        try {
+            while (index >= mem.size() && !done)
+                arrived.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next item!", e);
+        } finally {
+            lock.unlock();
+        }
+        if (index < mem.size())
+            return true;
+        Throwable e = failure;
+        if (e != null)
+            throw new CompletionException(e);
+        return false;
+    }
+
+    private boolean needsDemand(long index) {
+        return index + (REQUEST_BATCH >> 1) >= wanted;
+    }
+
+    /**
+     * Runs demand() on the executor, where nobody else would see a failure
+     * of subscribe() or request(), so it fails the waiting stages instead.
+     */
+    private void demandOrFail(long index) {
+        try {
+            demand(index);
+        } catch (Throwable e) {
+            Flow.Subscription s = subscription;
+            if (s != null)
+                s.cancel();
+            onError(e);
+        }
+    }
+
+    /**
+     * Requests another batch from the publisher when a reader is within
+     * half a batch of the items wanted so far. Otherwise it is only a
+     * volatile read.
+     */
+    private void demand(long index) {
+        if (!needsDemand(index))
+            return;
+        if (subscribed.compareAndSet(false, true))
+            dataSrc.subscribe(this);
+        long n = 0;
+        Flow.Subscription s;
+        lock.lock();
+        try {
+            if (index + (REQUEST_BATCH >> 1) >= wanted)
+                wanted = index + 1 + REQUEST_BATCH;
+            s = subscription;
+            if (s != null) {
+                n = wanted - requested;
+                requested = wanted;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (n > 0)
+            s.request(n);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+        long n;
+        lock.lock();
+        try {
+            if (subscription != null || done) {
+                s.cancel(); // Rule 2.5
+                return;
+            }
+            subscription = s;
+            n = wanted - requested;
+            requested = wanted;
+        } finally {
+            lock.unlock();
+        }
+        if (n > 0)
+            s.request(n);
+    }
+
+    @Override
+    public void onNext(T item) {
+        List<Map.Entry<Long, CompletableFuture<T>>> ready = new ArrayList<>();
+        lock.lock();
+        try {
+            if (done)
+                return;
+            mem.add(item);
+            while (!waiting.isEmpty() && waiting.firstKey() < mem.size())
+                ready.add(waiting.pollFirstEntry());
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Long, CompletableFuture<T>> e : ready)
+            complete(e.getValue(), e.getKey());
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        finish(e);
+    }
+
+    @Override
+    public void onComplete() {
+        finish(null);
+    }
+
+    /**
+     * Cancels the subscription, so no more items are memoized. As closing
+     * the source of a Recorder, it ends every replay, including later ones,
+     * at the items memoized so far, and stages waiting for further items
+     * complete with NoSuchElementException.
+     */
+    @Override
+    public void close() {
+        Flow.Subscription s = subscription;
+        if (s != null)
+            s.cancel();
+        finish(null);
+    }
+
+    /**
+     * Keeps the first of onError, onComplete or close, because items and
+     * the failure must not change once readers saw the end.
+     */
+    private void finish(Throwable cause) {
+        List<Map.Entry<Long, CompletableFuture<T>>> ready;
+        lock.lock();
+        try {
+            if (done)
+                return;
+            failure = cause;
+            done = true;
+            ready = new ArrayList<>(waiting.entrySet());
+            waiting.clear();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Long, CompletableFuture<T>> e : ready)
+            complete(e.getValue(), e.getKey());
+    }
+
+    private void complete(CompletableFuture<T> item, long index) {
+        if (index < mem.size())
+            item.complete(mem.get(index));
+        else if (failure != null)
+            item.completeExceptionally(failure);
+        else
+            item.completeExceptionally(new NoSuchElementException("Replay has no item at index " + index));
+    }
+
+    class MemoizeIter extends Spliterators.AbstractSpliterator<T> {
+        private long index;
+
+        MemoizeIter() {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> cons) {
+            if (!getOrAwait(index, cons))
+                return false;
+            index++;
+            return true;
+        }
+
+        /**
+         * Runs of memoized items are handed to the action without locking.
+         */
+        @Override
+        public void forEachRemaining(Consumer<? super T> cons) {
+            Objects.requireNonNull(cons);
+            for (long fence; ; index = fence) {
+                fence = mem.size();
+                if (index >= fence) {
+                    if (!awaitItem(index))
+                        return;
+                    fence = mem.size();
+                }
+                demand(fence);
+                mem.forEach(index, fence, cons);
+            }
+        }
+    }
+}
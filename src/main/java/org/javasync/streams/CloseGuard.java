@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Keeps the memory that close() releases explicitly, such as freed direct
+ * buffers or unmapped files, from being touched by readers or writers still
+ * in flight, which would read garbage or crash the JVM.
+ *
+ * Each access holds a read stamp only while touching that memory, never
+ * while running a consumer, and close() takes the write lock for good, so
+ * it waits for the accesses in flight and bars any other.
+ */
+final class CloseGuard {
+    private final StampedLock lock = new StampedLock();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Returns the stamp to exit() with, or 0 if closed.
+     */
+    long tryEnter() {
+        return lock.tryReadLock();
+    }
+
+    /**
+     * Returns the stamp to exit() with, or throws if closed.
+     */
+    long enter() {
+        long stamp = lock.tryReadLock();
+        if (stamp == 0)
+            throw new IllegalStateException("Replay is already closed!");
+        return stamp;
+    }
+
+    void exit(long stamp) {
+        lock.unlockRead(stamp);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Waits for the accesses in flight and bars any other. Returns true
+     * only for the first call, which must then release the memory.
+     */
+    boolean close() {
+        if (!closed.compareAndSet(false, true))
+            return false;
+        lock.writeLock();
+        return true;
+    }
+}
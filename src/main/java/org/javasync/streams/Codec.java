@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes items into bytes and decodes them back, for replays that keep
+ * memoized items out of the Java heap.
+ *
+ * @param <T> the type of encoded items.
+ */
+public interface Codec<T> {
+
+    /**
+     * Number of bytes that write() puts for given item.
+     */
+    int sizeOf(T item);
+
+    /**
+     * Writes the item at the current position of dst, advancing it by
+     * exactly sizeOf(item) bytes.
+     */
+    void write(T item, ByteBuffer dst);
+
+    /**
+     * Reads an item from src, which is positioned at the first byte of the
+     * item and limited to its last one.
+     */
+    T read(ByteBuffer src);
+
+    static Codec<Integer> ofInt() {
+        return Codecs.INT;
+    }
+
+    static Codec<Long> ofLong() {
+        return Codecs.LONG;
+    }
+
+    static Codec<Double> ofDouble() {
+        return Codecs.DOUBLE;
+    }
+
+    /**
+     * Encodes strings in UTF-8.
+     */
+    static Codec<String> ofString() {
+        return Codecs.STRING;
+    }
+}
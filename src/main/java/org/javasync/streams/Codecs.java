@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Built-in codecs, returned by the static factories of Codec.
+ */
+class Codecs {
+
+    static final Codec<Integer> INT = new Codec<Integer>() {
+        public int sizeOf(Integer item) {
+            return Integer.BYTES;
+        }
+        public void write(Integer item, ByteBuffer dst) {
+            dst.putInt(item);
+        }
+        public Integer read(ByteBuffer src) {
+            return src.getInt();
+        }
+    };
+
+    static final Codec<Long> LONG = new Codec<Long>() {
+        public int sizeOf(Long item) {
+            return Long.BYTES;
+        }
+        public void write(Long item, ByteBuffer dst) {
+            dst.putLong(item);
+        }
+        public Long read(ByteBuffer src) {
+            return src.getLong();
+        }
+    };
+
+    static final Codec<Double> DOUBLE = new Codec<Double>() {
+        public int sizeOf(Double item) {
+            return Double.BYTES;
+        }
+        public void write(Double item, ByteBuffer dst) {
+            dst.putDouble(item);
+        }
+        public Double read(ByteBuffer src) {
+            return src.getDouble();
+        }
+    };
+
+    static final Codec<String> STRING = new Codec<String>() {
+        public int sizeOf(String item) {
+            return utf8Length(item);
+        }
+        public void write(String item, ByteBuffer dst) {
+            dst.put(item.getBytes(UTF_8));
+        }
+        public String read(ByteBuffer src) {
+            byte[] bytes = new byte[src.remaining()];
+            src.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    /**
+     * Number of bytes of the UTF-8 encoding of given string, where unpaired
+     * surrogates are replaced by '?' as in String.getBytes().
+     */
+    static int utf8Length(String str) {
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80)
+                len += 1;
+            else if (c < 0x800)
+                len += 2;
+            else if (Character.isHighSurrogate(c)
+                    && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else if (Character.isSurrogate(c))
+                len += 1;
+            else
+                len += 3;
+        }
+        return len;
+    }
+}
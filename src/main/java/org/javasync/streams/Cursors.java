@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Registry of the positions of the live readers of a Recorder.
+ *
+ * Each reader publishes its position in a Cursor, which stays registered
+ * until the reader closes it or the reader itself becomes unreachable,
+ * since most stream pipelines stop traversing without closing the stream.
+ */
+final class Cursors {
+    private final ConcurrentLinkedQueue<Ref> refs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registers a Cursor starting at given position, which is released
+     * once the owner is garbage collected.
+     */
+    Cursor register(Object owner, long position) {
+        Cursor cursor = new Cursor(position);
+        refs.add(new Ref(owner, cursor));
+        return cursor;
+    }
+
+    /**
+     * Returns the lowest position of the live cursors, or ifNone if there
+     * is none. Removes the closed and unreachable ones.
+     */
+    long min(long ifNone) {
+        long min = ifNone;
+        for (Iterator<Ref> iter = refs.iterator(); iter.hasNext(); ) {
+            Ref ref = iter.next();
+            if (ref.cursor.closed || ref.get() == null)
+                iter.remove();
+            else
+                min = Math.min(min, ref.cursor.position);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the positions of the live cursors and removes the closed and
+     * unreachable ones.
+     */
+    long[] positions() {
+        long[] positions = new long[8];
+        int n = 0;
+        for (Iterator<Ref> iter = refs.iterator(); iter.hasNext(); ) {
+            Ref ref = iter.next();
+            if (ref.cursor.closed || ref.get() == null) {
+                iter.remove();
+                continue;
+            }
+            if (n == positions.length)
+                positions = Arrays.copyOf(positions, n << 1);
+            positions[n++] = ref.cursor.position;
+        }
+        return Arrays.copyOf(positions, n);
+    }
+
+    static final class Cursor {
+        private static final AtomicLongFieldUpdater<Cursor> POSITION =
+                AtomicLongFieldUpdater.newUpdater(Cursor.class, "position");
+
+        private volatile long position;
+        private volatile boolean closed;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        /**
+         * Publishes the new position with an ordered write, which is cheaper
+         * than a volatile one and enough for other threads to eventually see it.
+         */
+        void moveTo(long position) {
+            POSITION.lazySet(this, position);
+        }
+
+        void close() {
+            closed = true;
+        }
+    }
+
+    private static final class Ref extends WeakReference<Object> {
+        final Cursor cursor;
+
+        Ref(Object owner, Cursor cursor) {
+            super(owner);
+            this.cursor = cursor;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An append-only log of items encoded with a Codec into the segments of an
+ * Arena. Each item is stored as its length followed by its bytes, in a
+ * segment of segmentBytes, or in a dedicated segment if it does not fit.
+ * On heap it only keeps the address of each item, in long segments.
+ *
+ * As AbstractSegmentedBuffer, there is a single writer at a time and
+ * readers get any item below size() without locking.
+ */
+final class EncodedLog<T> {
+    private final Codec<T> codec;
+    private final Arena arena;
+    private final int segmentBytes;
+    /**
+     * Address of each item, as the segment index in the high 32 bits and
+     * the offset in the low 32 bits.
+     */
+    private final SegmentedBuffer.OfLong addresses = new SegmentedBuffer.OfLong();
+    private ByteBuffer tail;
+
+    EncodedLog(Codec<T> codec, Arena arena, int segmentBytes) {
+        this.codec = Objects.requireNonNull(codec);
+        this.arena = arena;
+        this.segmentBytes = segmentBytes;
+    }
+
+    long size() {
+        return addresses.size();
+    }
+
+    void add(T item) {
+        int len = codec.sizeOf(item);
+        int needed = Integer.BYTES + len;
+        if (tail == null || tail.remaining() < needed)
+            tail = arena.allocate(Math.max(segmentBytes, needed));
+        int offset = tail.position();
+        tail.putInt(len);
+        codec.write(item, tail);
+        if (tail.position() != offset + needed)
+            throw new IllegalStateException(String.format(
+                    "Codec wrote %d bytes, but sizeOf() reported %d!", tail.position() - offset - Integer.BYTES, len));
+        addresses.add(((long) (arena.count() - 1) << 32) | offset);
+    }
+
+    T get(long index) {
+        long address = addresses.get(index);
+        ByteBuffer src = arena.segment((int) (address >>> 32)).duplicate();
+        int offset = (int) address;
+        int len = src.getInt(offset);
+        src.limit(offset + Integer.BYTES + len).position(offset + Integer.BYTES);
+        return codec.read(src);
+    }
+}
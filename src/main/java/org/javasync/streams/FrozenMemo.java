@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * An immutable Memo over an exact-size array, which replaces the Memo of a
+ * Recorder once its data source is complete. Replays are then served by the
+ * array spliterators of the JDK, with no locking nor virtual calls per item.
+ *
+ * @param <T> the type of memoized items.
+ */
+abstract class FrozenMemo<T> implements Memo<T> {
+
+    @Override
+    public final boolean add(T item) {
+        throw new IllegalStateException("Cannot add items to a complete Recorder!");
+    }
+
+    /**
+     * Returns a spliterator over the items between origin (inclusive) and
+     * fence (exclusive), which is IMMUTABLE, SIZED and SUBSIZED besides
+     * the given characteristics.
+     */
+    abstract Spliterator<T> spliterator(int origin, int fence, int characteristics);
+
+    static final class OfRef<T> extends FrozenMemo<T> {
+        private final Object[] items;
+
+        OfRef(Object[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public long size() {
+            return items.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) items[(int) index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            for (int i = (int) origin; i < fence; i++)
+                action.accept((T) items[i]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Spliterator<T> spliterator(int origin, int fence, int characteristics) {
+            return (Spliterator<T>) Spliterators.spliterator(
+                    items, origin, fence, characteristics | Spliterator.IMMUTABLE);
+        }
+    }
+
+    /**
+     * Keeps boxed Integer items unboxed, as UnboxedMemo.OfInt.
+     * Its spliterator is a Spliterator.OfInt, which boxes items when
+     * traversed with a Consumer rather than an IntConsumer.
+     */
+    static final class OfInt<T> extends FrozenMemo<T> {
+        private final int[] items;
+
+        OfInt(int[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public long size() {
+            return items.length;
+        }
+
+        @Override
+        public long retainedBytes() {
+            return items.length * (long) Integer.BYTES;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Integer.valueOf(items[(int) index]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            for (int i = (int) origin; i < fence; i++)
+                action.accept((T) Integer.valueOf(items[i]));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Spliterator<T> spliterator(int origin, int fence, int characteristics) {
+            return (Spliterator<T>) Spliterators.spliterator(
+                    items, origin, fence, characteristics | Spliterator.IMMUTABLE);
+        }
+    }
+
+    /**
+     * Keeps boxed Long items unboxed, as UnboxedMemo.OfLong.
+     * Its spliterator is a Spliterator.OfLong, which boxes items when
+     * traversed with a Consumer rather than an LongConsumer.
+     */
+    static final class OfLong<T> extends FrozenMemo<T> {
+        private final long[] items;
+
+        OfLong(long[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public long size() {
+            return items.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Long.valueOf(items[(int) index]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            for (int i = (int) origin; i < fence; i++)
+                action.accept((T) Long.valueOf(items[i]));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Spliterator<T> spliterator(int origin, int fence, int characteristics) {
+            return (Spliterator<T>) Spliterators.spliterator(
+                    items, origin, fence, characteristics | Spliterator.IMMUTABLE);
+        }
+    }
+
+    /**
+     * Keeps boxed Double items unboxed, as UnboxedMemo.OfDouble.
+     * Its spliterator is a Spliterator.OfDouble, which boxes items when
+     * traversed with a Consumer rather than an DoubleConsumer.
+     */
+    static final class OfDouble<T> extends FrozenMemo<T> {
+        private final double[] items;
+
+        OfDouble(double[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public long size() {
+            return items.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Double.valueOf(items[(int) index]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            for (int i = (int) origin; i < fence; i++)
+                action.accept((T) Double.valueOf(items[i]));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Spliterator<T> spliterator(int origin, int fence, int characteristics) {
+            return (Spliterator<T>) Spliterators.spliterator(
+                    items, origin, fence, characteristics | Spliterator.IMMUTABLE);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+/**
+ * A Recorder of long values that memoizes items in long segments and replays
+ * them through Spliterator.OfLong, so neither recording nor replay boxes items.
+ */
+final class LongRecorder extends AbstractRecorder<Long, Spliterator.OfLong> {
+    private final SegmentedBuffer.OfLong mem = new SegmentedBuffer.OfLong();
+    private final LongConsumer append = mem::add;
+
+    LongRecorder(Supplier<LongStream> dataSrc) {
+        super(dataSrc);
+    }
+
+    @Override
+    long size() {
+        return mem.size();
+    }
+
+    @Override
+    long retainedBytes() {
+        return mem.size() * Long.BYTES;
+    }
+
+    @Override
+    boolean pull(Spliterator.OfLong srcIter) {
+        return srcIter.tryAdvance(append);
+    }
+
+    public Spliterator.OfLong memIterator() {
+        return isComplete()
+            ? new RandomAccessSpliterator(0, -1) // Fast-path when all items are already saved in mem!
+            : new MemoizeIter(getSrcIter());
+    }
+
+    class MemoizeIter extends Spliterators.AbstractLongSpliterator {
+        long index = 0;
+        int batch = SPLIT_UNIT;
+        RandomAccessSpliterator fast; // Takes over once the Recorder is complete
+        MemoizeIter(Spliterator.OfLong inner) {
+            super(srcEstimateSize(), inner.characteristics());
+        }
+        private RandomAccessSpliterator fastPath() {
+            if (fast == null && isComplete())
+                fast = new RandomAccessSpliterator(index, size());
+            return fast;
+        }
+        public Spliterator.OfLong trySplit() {
+            if (fastPath() != null)
+                return fast.trySplit();
+            long lo = index, hi = splitFence(lo, batch);
+            if (lo >= hi)
+                return null;
+            batch = Math.min(batch + SPLIT_UNIT, MAX_SPLIT);
+            index = hi;
+            return new RandomAccessSpliterator(lo, hi);
+        }
+        public long estimateSize() {
+            return fastPath() != null
+                ? fast.estimateSize()
+                : estimateSizeFrom(index);
+        }
+        public boolean tryAdvance(LongConsumer cons) {
+            if (fastPath() != null)
+                return fast.tryAdvance(cons);
+            long i = index;
+            if (i < mem.size() || advance(i)) {
+                index = i + 1;
+                cons.accept(mem.get(i));
+                return true;
+            }
+            return false;
+        }
+        public void forEachRemaining(LongConsumer cons) {
+            Objects.requireNonNull(cons);
+            if (fastPath() != null)
+                fast.forEachRemaining(cons);
+            else
+                index = forEachFrom(index, (from, to) -> mem.forEach(from, to, cons));
+        }
+        public Comparator<? super Long> getComparator() {
+            return srcComparator();
+        }
+    }
+
+    /**
+     * Same as Recorder.RandomAccessSpliterator but over long items.
+     */
+    class RandomAccessSpliterator implements Spliterator.OfLong {
+
+        private long index; // current index, modified on advance/split
+        private long fence; // -1 until used; then one past last index
+
+        RandomAccessSpliterator(long origin, long fence) {
+            this.index = origin;
+            this.fence = fence;
+        }
+
+        private long getFence() { // initialize fence to size on first use
+            long hi;
+            if ((hi = fence) < 0) {
+                hi = fence = mem.size();
+            }
+            return hi;
+        }
+
+        public Spliterator.OfLong trySplit() {
+            long hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null : // divide range in half unless too small
+                    new RandomAccessSpliterator(lo, index = mid);
+        }
+
+        public boolean tryAdvance(LongConsumer action) {
+            Objects.requireNonNull(action);
+            long hi = getFence(), i = index;
+            if (i < hi) {
+                index = i + 1;
+                action.accept(mem.get(i));
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(LongConsumer action) {
+            Objects.requireNonNull(action);
+            long hi = getFence();
+            long i = index;
+            index = hi;
+            mem.forEach(i, hi, action);
+        }
+
+        public long estimateSize() {
+            return getFence() - index;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED
+                    | Spliterator.SIZED
+                    | Spliterator.SUBSIZED
+                    | srcCharacteristics();
+        }
+        public Comparator<? super Long> getComparator() {
+            return srcComparator();
+        }
+    }
+}
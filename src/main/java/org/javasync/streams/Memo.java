@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage of the items memoized by a Recorder.
+ * It has a single writer at a time, which is externally synchronized,
+ * and readers that get any item below size() without locking.
+ *
+ * @param <T> the type of memoized items.
+ */
+interface Memo<T> {
+
+    long size();
+
+    /**
+     * Reader side. The index must be lower than a previously read size.
+     */
+    T get(long index);
+
+    /**
+     * Writer side. Returns false, leaving the Memo unchanged, if the item
+     * does not fit the representation of this Memo.
+     */
+    boolean add(T item);
+
+    /**
+     * Reader side. Performs the action for each item between origin
+     * (inclusive) and fence (exclusive).
+     */
+    void forEach(long origin, long fence, Consumer<? super T> action);
+
+    /**
+     * Returns an immutable Memo with the same items in an exact-size array,
+     * or this Memo if it cannot be compacted.
+     * Called by the writer once the data source is complete.
+     */
+    default Memo<T> freeze() {
+        return this;
+    }
+
+    /**
+     * Estimated bytes on the heap holding the items, not counting the
+     * objects they refer to. By default a slot of 8 bytes per item.
+     */
+    default long retainedBytes() {
+        return size() * Long.BYTES;
+    }
+
+    /**
+     * Releases any resources held outside the heap. Items cannot be read
+     * afterwards.
+     */
+    default void close() {
+    }
+
+    /**
+     * A Memo with no items that rejects any add(), letting the writer
+     * choose a representation once it knows the first item.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Memo<T> empty() {
+        return (Memo<T>) Empty.INSTANCE;
+    }
+
+    /**
+     * Chooses the representation for a stream starting with given item.
+     * Boxed Integer, Long and Double items are kept unboxed in primitive
+     * columns and any other item in a SegmentedBuffer of references.
+     */
+    static <T> Memo<T> of(T first) {
+        if (first instanceof Integer)
+            return new UnboxedMemo.OfInt<>();
+        if (first instanceof Long)
+            return new UnboxedMemo.OfLong<>();
+        if (first instanceof Double)
+            return new UnboxedMemo.OfDouble<>();
+        return new SegmentedBuffer<>();
+    }
+
+    /**
+     * Returns a SegmentedBuffer of references with the items of given Memo,
+     * for the writer to continue with once the Memo rejects an item.
+     */
+    static <T> Memo<T> copyOf(Memo<T> src) {
+        SegmentedBuffer<T> dest = new SegmentedBuffer<>();
+        src.forEach(0, src.size(), dest::add);
+        return dest;
+    }
+
+    enum Empty implements Memo<Object> {
+        INSTANCE;
+
+        public long size() {
+            return 0;
+        }
+        public Object get(long index) {
+            throw new IndexOutOfBoundsException(Long.toString(index));
+        }
+        public boolean add(Object item) {
+            return false;
+        }
+        public void forEach(long origin, long fence, Consumer<? super Object> action) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.function.Consumer;
+
+/**
+ * A Memo that encodes items with a Codec into direct byte buffers, so the
+ * memoized items are out of the heap scanned by the garbage collector.
+ *
+ * The native memory is released on close(), once no reader nor writer is
+ * touching it, or by a Cleaner once the Memo becomes unreachable.
+ */
+final class OffHeapMemo<T> implements Memo<T> {
+    static final int SEGMENT_BYTES = 1 << 20;
+    static final Cleaner CLEANER = Cleaner.create();
+    static final int CHUNK = 256;
+
+    private final Cleaner.Cleanable cleanable;
+    private final EncodedLog<T> log;
+    private final CloseGuard guard = new CloseGuard();
+
+    OffHeapMemo(Codec<T> codec) {
+        Arena arena = new Arena.Direct();
+        this.log = new EncodedLog<>(codec, arena, SEGMENT_BYTES);
+        this.cleanable = CLEANER.register(this, arena);
+    }
+
+    @Override
+    public long size() {
+        return log.size();
+    }
+
+    @Override
+    public boolean add(T item) {
+        long stamp = guard.enter();
+        try {
+            log.add(item);
+        } finally {
+            guard.exit(stamp);
+        }
+        return true;
+    }
+
+    @Override
+    public T get(long index) {
+        long stamp = guard.enter();
+        try {
+            return log.get(index);
+        } finally {
+            guard.exit(stamp);
+            Reference.reachabilityFence(this); // Keeps the Cleaner away while reading
+        }
+    }
+
+    /**
+     * Decodes runs of up to CHUNK items under a single stamp of the guard,
+     * and only then hands them to the action, outside of it.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(long origin, long fence, Consumer<? super T> action) {
+        if (origin >= fence)
+            return;
+        Object[] chunk = new Object[(int) Math.min(CHUNK, fence - origin)];
+        while (origin < fence) {
+            int n = (int) Math.min(chunk.length, fence - origin);
+            long stamp = guard.enter();
+            try {
+                for (int i = 0; i < n; i++)
+                    chunk[i] = log.get(origin + i);
+            } finally {
+                guard.exit(stamp);
+                Reference.reachabilityFence(this); // Keeps the Cleaner away while reading
+            }
+            for (int i = 0; i < n; i++) {
+                action.accept((T) chunk[i]);
+                chunk[i] = null;
+            }
+            origin += n;
+        }
+    }
+
+    /**
+     * Waits for the reads in flight and releases the native memory.
+     * Items cannot be read afterwards.
+     */
+    @Override
+    public void close() {
+        if (guard.close())
+            cleanable.clean();
+    }
+}
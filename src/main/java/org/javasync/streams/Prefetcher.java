@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.javasync.streams.AbstractRecorder.BATCH_UNIT;
+
+/**
+ * Pulls items from the data source of a Recorder on an executor, ahead of
+ * the fastest reader, so readers do not pay the latency of the source.
+ *
+ * It keeps up to lookahead items memoized past the last index demanded by
+ * readers and then stops, so it stops with no active readers. Readers start
+ * it again once they come within half the lookahead of the frontier.
+ * The lookahead doubles, up to maxLookahead, after a reader misses, i.e.
+ * has to pull from the source itself, and shrinks by a quarter after
+ * readers consume a whole lookahead without misses.
+ *
+ * A failure of the source is kept and thrown to the next reader that
+ * misses, because the prefetching thread has nobody to report it to.
+ */
+final class Prefetcher implements Runnable {
+    /**
+     * A virtual thread per task where available, otherwise daemon threads.
+     */
+    static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
+    private final AbstractRecorder<?, ?> rec;
+    private final Executor executor;
+    private final int maxLookahead;
+    /**
+     * Initial and minimum lookahead, and the largest batch per pull, which
+     * is BATCH_UNIT unless maxLookahead is lower.
+     */
+    private final int minLookahead;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long demand;
+    private volatile int lookahead;
+    private volatile boolean missed;
+    private volatile Throwable failure;
+    private long checkpoint; // Demand at the last shrink, only used by run()
+
+    Prefetcher(AbstractRecorder<?, ?> rec, Executor executor, int maxLookahead) {
+        if (maxLookahead < 1)
+            throw new IllegalArgumentException("maxLookahead must be positive!");
+        this.rec = rec;
+        this.executor = executor;
+        this.maxLookahead = maxLookahead;
+        this.minLookahead = Math.min(BATCH_UNIT, maxLookahead);
+        this.lookahead = minLookahead;
+    }
+
+    /**
+     * Reader side, on every read. Only writes to shared fields every few
+     * items of the fastest reader.
+     */
+    void demand(long index) {
+        if (index - demand >= minLookahead)
+            demand = index;
+        if (!running.get() && rec.size() - index <= lookahead >> 1 && !rec.isComplete())
+            start();
+    }
+
+    /**
+     * Reader side, when the reader is about to pull from the source itself.
+     */
+    void miss() {
+        Throwable e = failure;
+        if (e != null) {
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new IllegalStateException(e);
+        }
+        if (!missed)
+            missed = true;
+    }
+
+    @Override
+    public void run() {
+        do {
+            try {
+                long ahead;
+                while (!rec.isClosed() && (ahead = demand + lookahead - rec.size()) > 0)
+                    if (!rec.prefetch(rec.size(), (int) Math.min(minLookahead, ahead)))
+                        break;
+                adapt();
+            } catch (Throwable e) {
+                failure = e;
+                return; // Keeps running set, so it does not start again.
+            }
+            running.set(false);
+        } while (!rec.isClosed()
+            && !rec.isComplete()
+            && demand + lookahead > rec.size()
+            && running.compareAndSet(false, true));
+    }
+
+    private void adapt() {
+        long d = demand;
+        int n = lookahead;
+        if (missed) {
+            missed = false;
+            lookahead = Math.min(n << 1, maxLookahead);
+            checkpoint = d;
+        } else if (d - checkpoint >= n) {
+            lookahead = Math.max(minLookahead, n - (n >> 2));
+            checkpoint = d;
+        }
+    }
+
+    private void start() {
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Keeps running set, so readers just pull on their own.
+            }
+        }
+    }
+
+    private static Executor defaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread t = new Thread(task, "streamemo-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
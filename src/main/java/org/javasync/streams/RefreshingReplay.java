@@ -0,0 +1,211 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.stream;
+import static org.javasync.streams.AbstractRecorder.BATCH_UNIT;
+
+/**
+ * A replay Supplier whose memoized items expire after a time to live.
+ *
+ * Each generation is a Recorder of a new stream of the data source, whose
+ * age counts from its creation. Within refreshAhead of the expiry, get()
+ * starts a new generation in the background, which pulls items until it
+ * has readyItems or is complete, and then atomically replaces the current
+ * one. Meanwhile get() keeps returning replays of the current generation.
+ * Once expired, get() switches to the new generation right away, and its
+ * readers just follow the frontier of the background pulls.
+ *
+ * If the background pulls fail, get() starts another generation on the
+ * next call, also when the failed one was already switched to.
+ *
+ * Replays already returned keep their generation until they end. A
+ * replaced generation closes its source once those replays are closed,
+ * or right away if there are none, so closing a replay no longer closes
+ * the source of a generation that get() still returns.
+ */
+final class RefreshingReplay<T> implements Supplier<Stream<T>> {
+    private final Supplier<Stream<T>> dataSrc;
+    private final long ttl;
+    private final long refreshAt;
+    private final long readyItems;
+    private final Executor executor;
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+    private final AtomicReference<Generation> next = new AtomicReference<>();
+    /**
+     * Serializes swap() and fail(), so a failed generation never replaces
+     * the current one after fail() checked it was not current.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    RefreshingReplay(Supplier<Stream<T>> dataSrc, Duration ttl, Duration refreshAhead, long readyItems, Executor executor) {
+        if (ttl.isNegative() || ttl.isZero())
+            throw new IllegalArgumentException("The time to live must be positive!");
+        if (refreshAhead.isNegative() || refreshAhead.compareTo(ttl) > 0)
+            throw new IllegalArgumentException("refreshAhead must be between zero and the time to live!");
+        if (readyItems < 1)
+            throw new IllegalArgumentException("readyItems must be positive!");
+        this.dataSrc = Objects.requireNonNull(dataSrc);
+        this.ttl = ttl.toNanos();
+        this.refreshAt = this.ttl - refreshAhead.toNanos();
+        this.readyItems = readyItems;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public Stream<T> get() {
+        for (;;) {
+            Generation gen = current.get();
+            if (gen == null) {
+                current.compareAndSet(null, new Generation());
+                continue;
+            }
+            long age = System.nanoTime() - gen.created;
+            if (gen.failed || age >= refreshAt)
+                gen = refresh(gen, gen.failed || age >= ttl);
+            if (gen.acquire())
+                return gen.replay();
+            // Replaced and closed meanwhile, so there is a newer one.
+        }
+    }
+
+    private Generation refresh(Generation gen, boolean expired) {
+        Generation fresh = next.get();
+        if (fresh == null) {
+            Generation created = new Generation();
+            if (next.compareAndSet(null, created)) {
+                fresh = created;
+                fill(gen, fresh);
+            } else {
+                fresh = next.get();
+            }
+        }
+        if (expired && fresh != null)
+            swap(gen, fresh);
+        return current.get();
+    }
+
+    private void fill(Generation old, Generation fresh) {
+        try {
+            executor.execute(() -> {
+                if (!fresh.acquire())
+                    return;
+                try {
+                    Replayer.Recorder<T> rec = fresh.rec;
+                    while (rec.size() < readyItems && rec.advance(rec.size(), BATCH_UNIT)) {
+                        // Pulls until ready
+                    }
+                    swap(old, fresh);
+                } catch (Throwable e) {
+                    fail(fresh);
+                } finally {
+                    fresh.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(fresh);
+        }
+    }
+
+    private void swap(Generation old, Generation fresh) {
+        lock.lock();
+        try {
+            if (fresh.failed || !current.compareAndSet(old, fresh))
+                return;
+            next.compareAndSet(fresh, null);
+        } finally {
+            lock.unlock();
+        }
+        old.retire();
+    }
+
+    /**
+     * Keeps the current generation until another refresh, unless fresh is
+     * already current, which get() then treats as expired.
+     */
+    private void fail(Generation fresh) {
+        boolean isCurrent;
+        lock.lock();
+        try {
+            fresh.failed = true;
+            next.compareAndSet(fresh, null);
+            isCurrent = current.get() == fresh;
+        } finally {
+            lock.unlock();
+        }
+        if (!isCurrent)
+            fresh.retire();
+    }
+
+    private final class Generation {
+        final Replayer.Recorder<T> rec = new Replayer.Recorder<>(dataSrc);
+        final long created = System.nanoTime();
+        /**
+         * One reference for being current or next, which retire() drops,
+         * plus one per open replay or fill. The source is closed at zero.
+         */
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final AtomicBoolean retired = new AtomicBoolean();
+        volatile boolean failed;
+
+        boolean acquire() {
+            for (int r = refs.get(); r > 0; r = refs.get())
+                if (refs.compareAndSet(r, r + 1))
+                    return true;
+            return false;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                rec.close();
+                rec.closeMem();
+            }
+        }
+
+        void retire() {
+            if (retired.compareAndSet(false, true))
+                release();
+        }
+
+        /**
+         * Must follow a successful acquire().
+         */
+        Stream<T> replay() {
+            return stream(rec.memIterator(), false).onClose(this::release);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * A cache of replays by key, built on demand from a loader function and
+ * kept under a budget of items, or of bytes as estimated by a weigher.
+ *
+ * A replay is weighed as its items are memoized, and the time spent
+ * pulling them from the source is its cost. When the cache is over budget
+ * it evicts by GreedyDual-Size-Frequency: the replay with the lowest
+ * priority goes, where priority is frequency * cost / weight plus an
+ * inflation that rises to the priority of each evicted replay. So
+ * replays that are rarely used, big and cheap to recompute go first, and
+ * replays that were used long ago eventually age out.
+ *
+ * Replays already handed out keep working after eviction, but further
+ * gets for their key load a new replay. Weights are approximate while
+ * replays are evicted and filled at the same time.
+ *
+ * There is at most one load in flight per key: concurrent gets of a missing
+ * key attach to the same replay, whose Recorder opens the source once, and
+ * a replay evicted while still loading is admitted again on the next miss
+ * of its key, as long as some reader holds it. A load that fails is kept as
+ * a negative entry for failureTtl, during which get() of its key fails
+ * right away rather than calling the loader again. Replays handed out
+ * before the failure rethrow it for good, without loading again.
+ *
+ * @param <K> the type of keys.
+ * @param <T> the type of stream elements.
+ */
+public final class ReplayCache<K, T> {
+    private final Function<? super K, ? extends Stream<T>> loader;
+    private final long budget;
+    private final ToLongFunction<? super T> weigher;
+    private final long failureTtl;
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Evicted replays whose load is in flight, which readers keep alive.
+     */
+    private final Map<K, WeakReference<Entry>> evictedLoads = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile double inflation;
+
+    /**
+     * How long a failed load is kept as a negative entry, by default.
+     */
+    public static final Duration DEFAULT_FAILURE_TTL = Duration.ofSeconds(1);
+
+    private ReplayCache(
+            Function<? super K, ? extends Stream<T>> loader,
+            long budget,
+            ToLongFunction<? super T> weigher,
+            Duration failureTtl) {
+        if (budget <= 0)
+            throw new IllegalArgumentException("The budget of a ReplayCache must be positive!");
+        if (failureTtl.isNegative())
+            throw new IllegalArgumentException("failureTtl must not be negative!");
+        this.loader = Objects.requireNonNull(loader);
+        this.budget = budget;
+        this.weigher = Objects.requireNonNull(weigher);
+        this.failureTtl = failureTtl.toNanos();
+    }
+
+    public static <K, T> ReplayCache<K, T> ofItems(Function<? super K, ? extends Stream<T>> loader, long maxItems) {
+        return ofItems(loader, maxItems, DEFAULT_FAILURE_TTL);
+    }
+
+    /**
+     * A cache that keeps up to maxItems memoized items in all its replays.
+     */
+    public static <K, T> ReplayCache<K, T> ofItems(
+            Function<? super K, ? extends Stream<T>> loader,
+            long maxItems,
+            Duration failureTtl) {
+        return new ReplayCache<>(loader, maxItems, item -> 1, failureTtl);
+    }
+
+    public static <K, T> ReplayCache<K, T> ofBytes(
+            Function<? super K, ? extends Stream<T>> loader,
+            long maxBytes,
+            ToLongFunction<? super T> bytesOf) {
+        return ofBytes(loader, maxBytes, bytesOf, DEFAULT_FAILURE_TTL);
+    }
+
+    /**
+     * A cache that keeps up to maxBytes in all its replays, as estimated by
+     * bytesOf for each memoized item.
+     */
+    public static <K, T> ReplayCache<K, T> ofBytes(
+            Function<? super K, ? extends Stream<T>> loader,
+            long maxBytes,
+            ToLongFunction<? super T> bytesOf,
+            Duration failureTtl) {
+        return new ReplayCache<>(loader, maxBytes, bytesOf, failureTtl);
+    }
+
+    /**
+     * Returns the replay of the given key, which only loads its stream on
+     * first use, as Replayer.replay().
+     * Throws IllegalStateException if loading that key failed less than
+     * failureTtl ago.
+     */
+    public Supplier<Stream<T>> get(K key) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            hits.increment();
+        } else {
+            boolean[] missed = {false};
+            e = entries.computeIfAbsent(key, k -> {
+                missed[0] = true;
+                return admit(k);
+            });
+            if (missed[0])
+                misses.increment();
+            else
+                hits.increment();
+        }
+        Throwable failure = e.failure;
+        if (failure != null) {
+            if (System.nanoTime() - e.failedAt < failureTtl)
+                throw new IllegalStateException("Loading the replay of " + key + " failed recently!", failure);
+            entries.remove(key, e);
+            return get(key);
+        }
+        e.frequency++;
+        e.base = inflation;
+        return e.replay;
+    }
+
+    /**
+     * Admits the evicted replay of the key if it is still loading,
+     * otherwise a new one. Called atomically for the key.
+     */
+    private Entry admit(K key) {
+        WeakReference<Entry> ref = evictedLoads.remove(key);
+        Entry e = ref == null ? null : ref.get();
+        if (e != null && e.readmit())
+            return e;
+        return new Entry(key);
+    }
+
+    /**
+     * Discards the replay of the given key, if any.
+     */
+    public void invalidate(K key) {
+        Entry e = entries.remove(key);
+        if (e != null)
+            e.discard();
+    }
+
+    /**
+     * Number of cached replays.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Items, or bytes, memoized by all cached replays.
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private void evictOverBudget() {
+        if (weight.get() <= budget)
+            return;
+        synchronized (this) {
+            while (weight.get() > budget) {
+                Entry victim = entries.values().stream()
+                    .filter(e -> e.failure == null)
+                    .min(Comparator.comparingDouble(Entry::priority))
+                    .orElse(null);
+                if (victim == null)
+                    return;
+                if (entries.remove(victim.key, victim)) {
+                    inflation = victim.priority();
+                    victim.discard();
+                    evictions.increment();
+                    if (victim.loading)
+                        evictedLoads.put(victim.key, new WeakReference<>(victim));
+                }
+            }
+        }
+    }
+
+    private final class Entry {
+        final K key;
+        final Supplier<Stream<T>> replay;
+        /**
+         * Written by a single thread at a time, the one pulling items from
+         * the source under the Recorder lock.
+         */
+        volatile long weight;
+        volatile long cost;
+        volatile boolean loading;
+        volatile Throwable failure;
+        volatile long failedAt;
+        private boolean discarded; // Guarded by this
+        /**
+         * Increments may race, which just counts fewer accesses.
+         */
+        volatile int frequency;
+        /**
+         * The inflation at the last access.
+         */
+        volatile double base;
+
+        Entry(K key) {
+            this.key = key;
+            this.replay = Replayer.replay(this::load);
+        }
+
+        double priority() {
+            return base + (double) frequency * Math.max(cost, 1) / Math.max(weight, 1);
+        }
+
+        synchronized void discard() {
+            if (!discarded) {
+                discarded = true;
+                ReplayCache.this.weight.addAndGet(-weight);
+            }
+        }
+
+        /**
+         * Returns false if the load ended meanwhile.
+         */
+        synchronized boolean readmit() {
+            if (!loading)
+                return false;
+            discarded = false;
+            ReplayCache.this.weight.addAndGet(weight);
+            return true;
+        }
+
+        synchronized void grow(long w) {
+            weight += w;
+            if (!discarded)
+                ReplayCache.this.weight.addAndGet(w);
+        }
+
+        synchronized boolean isDiscarded() {
+            return discarded;
+        }
+
+        /**
+         * Called under the Recorder lock by the first reader, and again by
+         * the next ones only if it failed, so they rethrow that failure.
+         */
+        Stream<T> load() {
+            rethrowFailure();
+            loading = true;
+            try {
+                Stream<T> src = loader.apply(key);
+                return stream(new Metered(src.spliterator()), false).onClose(src::close);
+            } catch (RuntimeException | Error e) {
+                failed(e);
+                throw e;
+            }
+        }
+
+        void rethrowFailure() {
+            Throwable e = failure;
+            if (e != null)
+                throw new IllegalStateException("Loading the replay of " + key + " failed!", e);
+        }
+
+        void loaded() {
+            loading = false;
+            evictedLoads.remove(key); // Only this one may be there while loading
+        }
+
+        /**
+         * Turns this entry into a negative one, unless evicted meanwhile.
+         */
+        void failed(Throwable e) {
+            failedAt = System.nanoTime();
+            failure = e;
+            discard();
+            loaded();
+        }
+
+        /**
+         * Weighs each item pulled from the source and the time it took.
+         */
+        final class Metered implements Spliterator<T> {
+            private final Spliterator<T> src;
+            private final Consumer<T> weigh;
+            private Consumer<? super T> action;
+
+            Metered(Spliterator<T> src) {
+                this.src = src;
+                this.weigh = item -> {
+                    grow(weigher.applyAsLong(item));
+                    action.accept(item);
+                };
+            }
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                rethrowFailure();
+                this.action = action;
+                long start = System.nanoTime();
+                boolean advanced;
+                try {
+                    advanced = src.tryAdvance(weigh);
+                } catch (RuntimeException | Error e) {
+                    failed(e);
+                    throw e;
+                }
+                cost += System.nanoTime() - start;
+                if (!advanced)
+                    loaded();
+                else if (!isDiscarded())
+                    evictOverBudget();
+                return advanced;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                return null;
+            }
+
+            @Override
+            public long estimateSize() {
+                return src.estimateSize();
+            }
+
+            @Override
+            public int characteristics() {
+                return src.characteristics();
+            }
+
+            @Override
+            public Comparator<? super T> getComparator() {
+                return src.getComparator();
+            }
+        }
+    }
+}
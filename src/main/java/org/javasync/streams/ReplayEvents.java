@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events of replays, each one enabled on its own by
+ * name, e.g. with jfr.enable("org.javasync.streams.SourcePull").
+ * Only ReplayComplete is enabled by default. The others may fire once per
+ * pulled item, or per segment, so they would flood a recording with the
+ * default settings, and must be enabled explicitly.
+ *
+ * Events are only instrumented while a recording is running. Otherwise
+ * begin() and commit() are empty and the JIT removes the allocation of
+ * the event, so they cost nothing.
+ */
+final class ReplayEvents {
+
+    private ReplayEvents() {
+    }
+
+    @Name("org.javasync.streams.SourcePull")
+    @Label("Source Pull")
+    @Category({"Java Libraries", "Streamemo"})
+    @Description("Items pulled from the data source under the lock of a Recorder")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class SourcePull extends Event {
+        @Label("Batch Size")
+        @Description("Items requested by the reader at the frontier")
+        int batchSize;
+
+        @Label("Items")
+        @Description("Items actually pulled, fewer than the batch size if another thread pulled them first")
+        long items;
+    }
+
+    @Name("org.javasync.streams.FrontierWait")
+    @Label("Frontier Wait")
+    @Category({"Java Libraries", "Streamemo"})
+    @Description("Time a reader waited for another thread pulling from the data source")
+    @Enabled(false)
+    @Threshold("1 ms")
+    static final class FrontierWait extends Event {
+        @Label("Index")
+        @Description("Index of the item the reader is waiting for")
+        long index;
+    }
+
+    @Name("org.javasync.streams.SegmentAllocation")
+    @Label("Segment Allocation")
+    @Category({"Java Libraries", "Streamemo"})
+    @Description("A memo grew by a new segment")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class SegmentAllocation extends Event {
+        @Label("Segments")
+        @Description("Number of segments after the allocation")
+        int segments;
+
+        @Label("Capacity")
+        @Description("Items that fit in the memo after the allocation")
+        long capacity;
+    }
+
+    @Name("org.javasync.streams.ReplayComplete")
+    @Label("Replay Complete")
+    @Category({"Java Libraries", "Streamemo"})
+    @Description("All items of the data source are memoized")
+    static final class ReplayComplete extends Event {
+        @Label("Size")
+        @Description("Final number of items")
+        long size;
+
+        @Label("Retained Bytes")
+        @Description("Estimated heap bytes holding the items, or -1 if unknown")
+        @DataAmount
+        long retainedBytes;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a Recorder, collected in striped counters and exposed as a
+ * ReplayerMXBean. It only refers weakly to the Recorder, which unregisters
+ * it once garbage collected.
+ *
+ * Recorders only create it when ENABLED, which is a static final constant,
+ * so the JIT removes all metering code otherwise.
+ */
+final class ReplayMetrics implements ReplayerMXBean {
+
+    static final boolean ENABLED = Boolean.getBoolean("org.javasync.streams.metrics");
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final WeakReference<AbstractRecorder<?, ?>> rec;
+    private final AtomicBoolean registered = new AtomicBoolean();
+    final Cursors cursors = new Cursors();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder pulls = new LongAdder();
+    private final LongAdder pullNanos = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    ReplayMetrics(AbstractRecorder<?, ?> rec) {
+        this.rec = new WeakReference<>(rec);
+    }
+
+    /**
+     * Registers this MXBean on first call, when the data source is opened.
+     */
+    void register() {
+        AbstractRecorder<?, ?> r = rec.get();
+        if (r == null || !registered.compareAndSet(false, true))
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.javasync.streams:type=Replayer,id=" + IDS.incrementAndGet());
+            server.registerMBean(this, name);
+            OffHeapMemo.CLEANER.register(r, () -> unregister(server, name));
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void unregister(MBeanServer server, ObjectName name) {
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            // Already unregistered by someone else.
+        }
+    }
+
+    void lockWaited(long nanos) {
+        lockWaitNanos.add(nanos);
+    }
+
+    void hits(long n) {
+        hits.add(n);
+    }
+
+    void pulled(long n, long nanos) {
+        pulls.add(n);
+        pullNanos.add(nanos);
+    }
+
+    @Override
+    public long getItems() {
+        AbstractRecorder<?, ?> r = rec.get();
+        return r == null ? 0 : r.size();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        AbstractRecorder<?, ?> r = rec.get();
+        return r == null ? 0 : r.retainedBytes();
+    }
+
+    @Override
+    public int getLiveCursors() {
+        return cursors.positions().length;
+    }
+
+    @Override
+    public long[] getCursorLags() {
+        long frontier = getItems();
+        long[] lags = cursors.positions();
+        for (int i = 0; i < lags.length; i++)
+            lags[i] = Math.max(frontier - lags[i], 0);
+        return lags;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getPulls() {
+        return pulls.sum();
+    }
+
+    @Override
+    public long getPullNanos() {
+        return pullNanos.sum();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    @Override
+    public boolean isComplete() {
+        AbstractRecorder<?, ?> r = rec.get();
+        return r != null && r.isComplete();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.javasync.streams.AbstractRecorder.MAX_BATCH;
+
+/**
+ * A subscription to the items of a Recorder, with its own cursor.
+ *
+ * Items are delivered by a drain task on the executor, which is the only
+ * one running for this subscription at a time. It hands memoized items to
+ * onNext without locking and only pulls from the data source at the
+ * frontier, under the Recorder lock but never while calling the
+ * subscriber. So a slow subscriber does not hold up any other one.
+ * After MAX_BATCH items the task is resubmitted to let other tasks run.
+ */
+final class ReplaySubscription<T> implements Flow.Subscription, Runnable {
+    private final Replayer.Recorder<T> rec;
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Executor executor;
+    private final Consumer<T> emit;
+    private final AtomicLong requested = new AtomicLong();
+    /**
+     * Number of signals not yet handled by the drain task, which only runs
+     * while it is not zero. It starts at 1 for the signal of subscribe(),
+     * so requests from within onSubscribe() do not start the drain task
+     * before onSubscribe() returns (Rule 1.3).
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+    private long index; // Only used by the drain task
+
+    ReplaySubscription(Replayer.Recorder<T> rec, Flow.Subscriber<? super T> subscriber, Executor executor) {
+        this.rec = rec;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.emit = subscriber::onNext;
+    }
+
+    static <T> void subscribe(Replayer.Recorder<T> rec, Flow.Subscriber<? super T> subscriber, Executor executor) {
+        Objects.requireNonNull(subscriber);
+        ReplaySubscription<T> subscription = new ReplaySubscription<>(rec, subscriber, executor);
+        subscriber.onSubscribe(subscription);
+        // Handles the requests made within onSubscribe(), if any. Otherwise,
+        // without demand nothing is pulled, so this only completes a
+        // Recorder that is already complete and empty.
+        subscription.drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0)
+            invalidRequest = new IllegalArgumentException("Requested " + n + " items, which is not positive (Rule 3.9)!");
+        else
+            requested.getAndAccumulate(n, (r, m) -> r + m < 0 ? Long.MAX_VALUE : r + m);
+        signal();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void signal() {
+        if (pending.getAndIncrement() == 0)
+            drain();
+    }
+
+    private void drain() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            cancelled = true;
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * The drain task.
+     */
+    @Override
+    public void run() {
+        int missed = pending.get();
+        try {
+            while (!cancelled) {
+                if (invalidRequest != null) {
+                    cancelled = true;
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                long r = requested.get();
+                long e = 0;
+                for (; e < r && e < MAX_BATCH && !cancelled; e++, index++) {
+                    if (!rec.getOrAdvance(index, emit))
+                        break;
+                }
+                if (e > 0 && r != Long.MAX_VALUE)
+                    requested.addAndGet(-e);
+                if (rec.isComplete() && index >= rec.size()) {
+                    if (!cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (e == MAX_BATCH) {
+                    executor.execute(this); // Still pending, so nobody else runs it
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        } catch (Throwable e) {
+            if (!cancelled) {
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+    }
+}
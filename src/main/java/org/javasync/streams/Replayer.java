@@ -24,17 +24,27 @@
 
 package org.javasync.streams;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Comparator;
-import java.util.List;
 import java.util.Objects;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
+import static java.util.stream.StreamSupport.doubleStream;
+import static java.util.stream.StreamSupport.intStream;
+import static java.util.stream.StreamSupport.longStream;
 import static java.util.stream.StreamSupport.stream;
 
 public class Replayer {
@@ -45,133 +55,572 @@ public class Replayer {
 
     public static <T> Supplier<Stream<T>> replay(Supplier<Stream<T>> dataSrc) {
         final Recorder<T> rec = new Recorder<>(dataSrc);
-        final AtomicBoolean isClosed = new AtomicBoolean(false);
         return () -> {
             // MemoizeIter starts on index 0 and reads data from srcIter or
             // from an internal mem replay Recorder.
             Spliterator<T> iter = rec.memIterator();
+            return stream(iter, false).onClose(rec::close);
+        };
+    }
+
+    public static <T> Supplier<Stream<T>> replay(
+            Stream<T> data,
+            int maxRetained,
+            WindowPolicy policy) {
+        return replay(() -> data, maxRetained, policy);
+    }
+
+    /**
+     * Same as replay() but only retaining the most recent maxRetained items,
+     * so memory stays bounded even for infinite data sources. A replay that
+     * falls behind the oldest retained item is handled according to the
+     * given policy.
+     */
+    public static <T> Supplier<Stream<T>> replay(
+            Supplier<Stream<T>> dataSrc,
+            int maxRetained,
+            WindowPolicy policy) {
+        final WindowRecorder<T> rec = new WindowRecorder<>(dataSrc, maxRetained, policy);
+        return () -> {
+            WindowRecorder<T>.MemoizeIter iter = rec.memIterator();
             return stream(iter, false)
-					.onClose(() -> {
-						if (isClosed.compareAndSet(false, true)) {
-							rec.close();
-						}
-					});
+                    .onClose(iter::close)
+                    .onClose(rec::close);
         };
     }
 
-    static class Recorder<T> implements AutoCloseable {
-        private final Supplier<Stream<T>> dataSrc;
-        private Stream<T> srcStream;
-        private Spliterator<T> srcIter;
-        private long estimateSize;
-        private boolean hasNext = true;
-        private ArrayList<T> mem;
+    /**
+     * What happens to a replay that falls behind the oldest item retained
+     * by a replay window.
+     */
+    public enum WindowPolicy {
+        /**
+         * The replay throws IllegalStateException.
+         */
+        FAIL,
+        /**
+         * The replay skips ahead to the oldest retained item.
+         */
+        SKIP,
+        /**
+         * The thread pulling items from the data source waits until the
+         * slowest live replay moves on. Replays that stop before the end
+         * should be closed, otherwise the producer is only released when
+         * they are garbage collected. A replay that starts after items were
+         * evicted fails as in FAIL.
+         */
+        BLOCK
+    }
+
+    public static <T> SharedReplay<T> share(Stream<T> data) {
+        return share(() -> data);
+    }
+
+    /**
+     * Same as replay() but for a set of replays that read the data source
+     * once, each one at its own pace. After {@link SharedReplay#seal()},
+     * the memoized prefix already read by every live replay is released.
+     */
+    public static <T> SharedReplay<T> share(Supplier<Stream<T>> dataSrc) {
+        final SharedRecorder<T> rec = new SharedRecorder<>(dataSrc);
+        return new SharedReplay<T>() {
+            @Override
+            public Stream<T> get() {
+                SharedRecorder<T>.MemoizeIter iter = rec.memIterator();
+                return stream(iter, false)
+                        .onClose(iter::close)
+                        .onClose(rec::close);
+            }
+            @Override
+            public void seal() {
+                rec.seal();
+            }
+        };
+    }
+
+    public static <T> Supplier<Stream<T>> replayPrefetching(Stream<T> data, int maxLookahead) {
+        return replayPrefetching(() -> data, maxLookahead, Prefetcher.DEFAULT_EXECUTOR);
+    }
+
+    public static <T> Supplier<Stream<T>> replayPrefetching(Supplier<Stream<T>> dataSrc, int maxLookahead) {
+        return replayPrefetching(dataSrc, maxLookahead, Prefetcher.DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Same as replay() but pulling items from the data source on the given
+     * executor, up to maxLookahead items ahead of the fastest reader, which
+     * hides the latency of I/O bound sources. The lookahead adapts to the
+     * readers and prefetching stops when there are no active readers or
+     * when a replay stream is closed.
+     */
+    public static <T> Supplier<Stream<T>> replayPrefetching(
+            Supplier<Stream<T>> dataSrc,
+            int maxLookahead,
+            Executor executor) {
+        final Recorder<T> rec = new Recorder<>(dataSrc);
+        rec.prefetch(executor, maxLookahead);
+        return () -> stream(rec.memIterator(), false).onClose(rec::close);
+    }
+
+    /**
+     * Same as replay() for a stream that is only available asynchronously,
+     * without blocking the caller. Items are memoized once the stream is
+     * available, on the threads that read them.
+     */
+    public static <T> AsyncReplay<T> replay(CompletionStage<? extends Stream<T>> dataSrc) {
+        return replay(new StagePublisher<>(dataSrc));
+    }
+
+    /**
+     * Same as replay() for the items of a publisher, which are memoized as
+     * they arrive. The publisher is subscribed on first use and demand
+     * towards it only runs a bounded number of items ahead of the readers.
+     * Closing a replay stream cancels the subscription, so every replay,
+     * including later ones, ends at the items memoized by then.
+     */
+    public static <T> AsyncReplay<T> replay(Flow.Publisher<T> dataSrc) {
+        final AsyncRecorder<T> rec = new AsyncRecorder<>(dataSrc, Prefetcher.DEFAULT_EXECUTOR);
+        return new AsyncReplay<T>() {
+            @Override
+            public Stream<T> get() {
+                return stream(rec.memIterator(), false).onClose(rec::close);
+            }
+            @Override
+            public CompletionStage<T> getAsync(long index) {
+                return rec.getAsync(index);
+            }
+        };
+    }
+
+    public static <T> Supplier<Stream<T>> replayRefreshing(
+            Supplier<Stream<T>> dataSrc,
+            Duration ttl,
+            Duration refreshAhead,
+            long readyItems) {
+        return replayRefreshing(dataSrc, ttl, refreshAhead, readyItems, Prefetcher.DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Same as replay() but its memoized items expire ttl after being
+     * fetched. Within refreshAhead of the expiry, a new generation is
+     * fetched from dataSrc on the given executor, while get() still replays
+     * the current one. get() switches to the new generation once it has
+     * readyItems, or all items, or once the current generation expires.
+     */
+    public static <T> Supplier<Stream<T>> replayRefreshing(
+            Supplier<Stream<T>> dataSrc,
+            Duration ttl,
+            Duration refreshAhead,
+            long readyItems,
+            Executor executor) {
+        return new RefreshingReplay<>(dataSrc, ttl, refreshAhead, readyItems, executor);
+    }
+
+    public static <T> PublishedReplay<T> publish(Stream<T> data, Executor executor) {
+        return publish(() -> data, executor);
+    }
+
+    /**
+     * Same as replay() but also publishing the memoized items to reactive
+     * subscribers. Each subscriber has its own cursor and gets items as it
+     * requests them, in batches delivered on the given executor, which also
+     * pulls from the data source on behalf of subscribers.
+     */
+    public static <T> PublishedReplay<T> publish(Supplier<Stream<T>> dataSrc, Executor executor) {
+        final Recorder<T> rec = new Recorder<>(dataSrc);
+        Objects.requireNonNull(executor);
+        return new PublishedReplay<T>() {
+            @Override
+            public Stream<T> get() {
+                return stream(rec.memIterator(), false).onClose(rec::close);
+            }
+            @Override
+            public void subscribe(Flow.Subscriber<? super T> subscriber) {
+                ReplaySubscription.subscribe(rec, subscriber, executor);
+            }
+        };
+    }
+
+    public static <T> CloseableReplay<T> replayOffHeap(Stream<T> data, Codec<T> codec) {
+        return replayOffHeap(() -> data, codec);
+    }
+
+    /**
+     * Same as replay() but memoizing items out of the Java heap, encoded
+     * with the given codec into direct byte buffers, which are released
+     * on close() or once the replay becomes unreachable.
+     */
+    public static <T> CloseableReplay<T> replayOffHeap(Supplier<Stream<T>> dataSrc, Codec<T> codec) {
+        return new RecorderReplay<>(new Recorder<>(dataSrc, new OffHeapMemo<>(codec)));
+    }
+
+    public static <T> CloseableReplay<T> replaySpilling(Stream<T> data, Codec<T> codec, long maxInMemory) {
+        return replaySpilling(() -> data, codec, maxInMemory);
+    }
+
+    /**
+     * Same as replaySpilling(dataSrc, codec, maxInMemory, dir) with the
+     * temporary files in the default temporary-file directory.
+     */
+    public static <T> CloseableReplay<T> replaySpilling(Supplier<Stream<T>> dataSrc, Codec<T> codec, long maxInMemory) {
+        return replaySpilling(dataSrc, codec, maxInMemory, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    public static <T> CloseableReplay<T> replaySpilling(Stream<T> data, Codec<T> codec, long maxInMemory, Path dir) {
+        return replaySpilling(() -> data, codec, maxInMemory, dir);
+    }
+
+    /**
+     * Same as replay() but keeping only the first maxInMemory items on the
+     * heap. Further items are encoded with the given codec by a background
+     * thread into memory-mapped temporary files in dir, which are deleted
+     * before close() returns, or once the replay becomes unreachable.
+     */
+    public static <T> CloseableReplay<T> replaySpilling(Supplier<Stream<T>> dataSrc, Codec<T> codec, long maxInMemory, Path dir) {
+        return new RecorderReplay<>(new Recorder<>(dataSrc, new SpillMemo<>(codec, maxInMemory, dir)));
+    }
+
+    /**
+     * Same as replay() but letting the garbage collector reclaim memoized
+     * items under memory pressure. Replaying reclaimed items calls dataSrc
+     * again and skips ahead to rebuild them, so dataSrc must be
+     * deterministic: every stream it returns must have the same items in
+     * the same order, otherwise rebuilding fails or replays wrong items.
+     */
+    public static <T> CloseableReplay<T> replaySoftly(Supplier<Stream<T>> dataSrc) {
+        return new RecorderReplay<>(new Recorder<>(dataSrc, new SoftMemo<>(dataSrc)));
+    }
+
+    /**
+     * Traverses the given replay to its end and saves its items, encoded
+     * with the given codec, into a snapshot file that load() may reopen,
+     * e.g. after a restart of the JVM. The file is replaced atomically, so
+     * it is never left half-written.
+     */
+    public static <T> void save(Supplier<Stream<T>> replay, Codec<T> codec, Path file) throws IOException {
+        Snapshot.save(replay, codec, file);
+    }
+
+    /**
+     * Replays the items of a snapshot file written by save(), decoding them
+     * with the given codec straight from the memory-mapped file, which is
+     * only mapped as items are read and is unmapped on close() or once the
+     * replay becomes unreachable.
+     */
+    public static <T> CloseableReplay<T> load(Path file, Codec<T> codec) throws IOException {
+        return Snapshot.open(file, codec);
+    }
+
+    public static Supplier<IntStream> replayInt(IntStream data) {
+        return replayInt(() -> data);
+    }
+
+    /**
+     * Same as replay() but memoizing items in int arrays, with no boxing
+     * neither on recording nor on replay.
+     */
+    public static Supplier<IntStream> replayInt(Supplier<IntStream> dataSrc) {
+        final IntRecorder rec = new IntRecorder(dataSrc);
+        return () -> intStream(rec.memIterator(), false).onClose(rec::close);
+    }
+
+    public static Supplier<LongStream> replayLong(LongStream data) {
+        return replayLong(() -> data);
+    }
+
+    /**
+     * Same as replay() but memoizing items in long arrays, with no boxing
+     * neither on recording nor on replay.
+     */
+    public static Supplier<LongStream> replayLong(Supplier<LongStream> dataSrc) {
+        final LongRecorder rec = new LongRecorder(dataSrc);
+        return () -> longStream(rec.memIterator(), false).onClose(rec::close);
+    }
+
+    public static Supplier<DoubleStream> replayDouble(DoubleStream data) {
+        return replayDouble(() -> data);
+    }
+
+    /**
+     * Same as replay() but memoizing items in double arrays, with no boxing
+     * neither on recording nor on replay.
+     */
+    public static Supplier<DoubleStream> replayDouble(Supplier<DoubleStream> dataSrc) {
+        final DoubleRecorder rec = new DoubleRecorder(dataSrc);
+        return () -> doubleStream(rec.memIterator(), false).onClose(rec::close);
+    }
+
+    /**
+     * A CloseableReplay that also releases the mem of its Recorder.
+     */
+    static class RecorderReplay<T> implements CloseableReplay<T> {
+        private final Recorder<T> rec;
+
+        RecorderReplay(Recorder<T> rec) {
+            this.rec = rec;
+        }
+
+        @Override
+        public Stream<T> get() {
+            return stream(rec.memIterator(), false).onClose(rec::close);
+        }
+
+        @Override
+        public void close() {
+            rec.close();
+            rec.closeMem();
+        }
+    }
+
+    static class Recorder<T> extends AbstractRecorder<T, Spliterator<T>> {
+        /**
+         * The representation of mem is chosen on the first pull and keeps
+         * boxed numbers unboxed, until an item that does not fit it arrives.
+         * Then mem is replaced by a copy with references, which is only
+         * published after having all previous items.
+         */
+        private volatile Memo<T> mem;
+        private final Consumer<T> append = this::append;
 
         public Recorder(Supplier<Stream<T>> dataSrc) {
-            this.dataSrc= dataSrc;
-        }
-
-        synchronized Spliterator<T> getSrcIter() {
-            if(srcIter == null) {
-            	srcStream = dataSrc.get();
-                srcIter = srcStream.spliterator();
-                estimateSize = srcIter.estimateSize();
-                if((srcIter.characteristics() & Spliterator.SIZED) == 0)
-                    mem = new ArrayList<>(); // Unknown size!!!
-                else {
-                    if(estimateSize > Integer.MAX_VALUE)
-                        throw new IllegalStateException("Replay unsupported for estimated size bigger than Integer.MAX_VALUE!");
-                    mem = new ArrayList<>((int) estimateSize);
-                }
+            this(dataSrc, Memo.empty());
+        }
+
+        /**
+         * Memoizes items in the given Memo, as long as it accepts them.
+         */
+        Recorder(Supplier<Stream<T>> dataSrc, Memo<T> mem) {
+            super(dataSrc);
+            this.mem = mem;
+        }
+
+        @Override
+        long size() {
+            return mem.size();
+        }
+
+        @Override
+        boolean pull(Spliterator<T> srcIter) {
+            return srcIter.tryAdvance(append);
+        }
+
+        private void append(T item) {
+            Memo<T> m = mem;
+            if (!m.add(item)) {
+                m = m.size() == 0 ? Memo.of(item) : Memo.copyOf(m);
+                m.add(item);
+                mem = m;
+            }
+        }
+
+        @Override
+        long retainedBytes() {
+            return mem.retainedBytes();
+        }
+
+        /**
+         * Releases the resources held by mem, e.g. off-heap memory, holding
+         * the lock so that no pull is writing to it meanwhile.
+         */
+        void closeMem() {
+            lock.lock();
+            try {
+                mem.close();
+            } finally {
+                lock.unlock();
             }
-            return srcIter;
         }
 
-        public synchronized boolean getOrAdvance(
-                final int index,
+        /**
+         * Compacts mem into an exact-size array, which is published before
+         * isComplete() becomes true.
+         */
+        @Override
+        void onComplete() {
+            mem = mem.freeze();
+        }
+
+        /**
+         * Items already in mem are read without any lock. Only the thread
+         * that must pull the next item from srcIter takes the lock.
+         */
+        public boolean getOrAdvance(
+                final long index,
                 Consumer<? super T> cons) {
             if (index < mem.size()) {
-                // If it is in mem then just get if from the corresponding index.
-                cons.accept(mem.get(index));
-                return true;
-            } else if (hasNext)
-                // If not in mem then advance the srcIter iterator
-                hasNext = getSrcIter().tryAdvance(item -> {
-                    mem.add(item);
-                    cons.accept(item);
-                });
-            return hasNext;
+                if (ReplayMetrics.ENABLED)
+                    metrics.hits(1);
+            } else if (!advance(index)) {
+                return false;
+            }
+            demand(index);
+            cons.accept(mem.get(index));
+            return true;
         }
 
         public Spliterator<T> memIterator() {
-            return !hasNext
-                ? new RandomAccessSpliterator() // Fast-path when all items are already saved in mem!
+            return isComplete()
+                ? completed(0) // Fast-path when all items are already saved in mem!
                 : new MemoizeIter(getSrcIter());
         }
 
+        /**
+         * Returns a spliterator over the items from origin on, once the
+         * Recorder is complete. If mem was frozen then it is an array
+         * spliterator, otherwise a RandomAccessSpliterator.
+         */
+        private Spliterator<T> completed(long origin) {
+            Memo<T> m = mem;
+            long fence = m.size();
+            origin = Math.min(origin, fence);
+            if (!(m instanceof FrozenMemo))
+                return new RandomAccessSpliterator(origin, fence);
+            // Array spliterators only report a natural order comparator.
+            int chars = srcCharacteristics() & ~Spliterator.CONCURRENT;
+            if ((chars & Spliterator.SORTED) != 0 && srcComparator() != null)
+                chars &= ~Spliterator.SORTED;
+            // Metered replays must count their hits.
+            if (ReplayMetrics.ENABLED)
+                return new RandomAccessSpliterator(origin, fence, chars
+                        | Spliterator.ORDERED
+                        | Spliterator.SIZED
+                        | Spliterator.SUBSIZED
+                        | Spliterator.IMMUTABLE);
+            return ((FrozenMemo<T>) m).spliterator(
+                    (int) origin,
+                    (int) fence,
+                    chars | Spliterator.ORDERED);
+        }
+
         class MemoizeIter extends Spliterators.AbstractSpliterator<T>  {
-            int index = 0;
+            long index = 0;
+            int batch = SPLIT_UNIT;
+            /**
+             * Takes over the remaining traversal once the Recorder is complete.
+             */
+            Spliterator<T> fast;
+            /**
+             * Position of this replay for metrics, only while incomplete.
+             */
+            Cursors.Cursor cursor;
             public MemoizeIter(Spliterator<T> inner){
-                super(estimateSize, inner.characteristics());
+                super(srcEstimateSize(), inner.characteristics());
+                if (ReplayMetrics.ENABLED)
+                    cursor = metrics.cursors.register(this, 0);
+            }
+            private Spliterator<T> fastPath() {
+                if (fast == null && isComplete()) {
+                    fast = completed(index);
+                    if (ReplayMetrics.ENABLED)
+                        cursor.close();
+                }
+                return fast;
+            }
+            /**
+             * Hands off the memoized items ahead of index to a balanced
+             * RandomAccessSpliterator and keeps the live frontier.
+             */
+            public Spliterator<T> trySplit() {
+                if (fastPath() != null)
+                    return fast.trySplit();
+                long lo = index, hi = splitFence(lo, batch);
+                if (lo >= hi)
+                    return null;
+                batch = Math.min(batch + SPLIT_UNIT, MAX_SPLIT);
+                index = hi;
+                return new RandomAccessSpliterator(lo, hi);
+            }
+            public long estimateSize() {
+                return fastPath() != null
+                    ? fast.estimateSize()
+                    : estimateSizeFrom(index);
             }
             public boolean tryAdvance(Consumer<? super T> cons) {
-                return getOrAdvance(index++, cons);
+                if (fastPath() != null)
+                    return fast.tryAdvance(cons);
+                boolean advanced = getOrAdvance(index++, cons);
+                if (ReplayMetrics.ENABLED) {
+                    if (advanced)
+                        cursor.moveTo(index);
+                    else
+                        cursor.close();
+                }
+                return advanced;
+            }
+            public void forEachRemaining(Consumer<? super T> cons) {
+                Objects.requireNonNull(cons);
+                if (fastPath() != null)
+                    fast.forEachRemaining(cons);
+                else if (ReplayMetrics.ENABLED)
+                    index = forEachFrom(index, (from, to) -> {
+                        mem.forEach(from, to, cons);
+                        cursor.moveTo(to);
+                    });
+                else
+                    index = forEachFrom(index, (from, to) -> mem.forEach(from, to, cons));
+                if (ReplayMetrics.ENABLED)
+                    cursor.close();
             }
             public Comparator<? super T> getComparator() {
-                return getSrcIter().getComparator();
+                return srcComparator();
             }
         }
 
         /**
          * An index-based split-by-two, lazily initialized Spliterator covering
-         * a List that access elements via {@link List#get}.
+         * the items of the mem buffer.
          *
-         * There are no concurrent modifications to the underlying list.
-         * That list is the mem field of Recorder and this iterator is just used
-         * when the list is completely filled.
+         * There are no concurrent modifications to the covered items.
+         * That buffer is the mem field of Recorder and this iterator is just used
+         * when the buffer is completely filled, or for the memoized items
+         * handed off by MemoizeIter.trySplit().
          *
          * Based on AbstractList.RandomAccessSpliterator
          */
         class RandomAccessSpliterator implements Spliterator<T> {
 
-            private int index; // current index, modified on advance/split
-            private int fence; // -1 until used; then one past last index
-
-            RandomAccessSpliterator() {
-                this.index = 0;
-                this.fence = -1;
-            }
+            private long index; // current index, modified on advance/split
+            private long fence; // -1 until used; then one past last index
+            private final int characteristics;
 
             /**
-             * Create new spliterator covering the given  range
+             * Create new spliterator covering the given range
              */
-            private RandomAccessSpliterator(RandomAccessSpliterator parent,
-                                            int origin, int fence) {
+            RandomAccessSpliterator(long origin, long fence) {
+                this(origin, fence, Spliterator.ORDERED
+                        | Spliterator.SIZED
+                        | Spliterator.SUBSIZED
+                        | srcCharacteristics());
+            }
+
+            RandomAccessSpliterator(long origin, long fence, int characteristics) {
                 this.index = origin;
                 this.fence = fence;
+                this.characteristics = characteristics;
             }
 
-            private int getFence() { // initialize fence to size on first use
-                int hi;
-                List<T> lst = mem;
+            private long getFence() { // initialize fence to size on first use
+                long hi;
                 if ((hi = fence) < 0) {
-                    hi = fence = lst.size();
+                    hi = fence = mem.size();
                 }
                 return hi;
             }
 
             public Spliterator<T> trySplit() {
-                int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+                long hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
                 return (lo >= mid) ? null : // divide range in half unless too small
-                        new RandomAccessSpliterator(this, lo, index = mid);
+                        new RandomAccessSpliterator(lo, index = mid, characteristics);
             }
 
             public boolean tryAdvance(Consumer<? super T> action) {
                 if (action == null)
                     throw new NullPointerException();
-                int hi = getFence(), i = index;
+                long hi = getFence(), i = index;
                 if (i < hi) {
                     index = i + 1;
+                    if (ReplayMetrics.ENABLED)
+                        metrics.hits(1);
                     action.accept(mem.get(i));
                     return true;
                 }
@@ -180,36 +629,24 @@ public class Replayer {
 
             public void forEachRemaining(Consumer<? super T> action) {
                 Objects.requireNonNull(action);
-                List<T> lst = mem;
-                int hi = getFence();
-                int i = index;
+                long hi = getFence();
+                long i = index;
                 index = hi;
-                for (; i < hi; i++) {
-                    action.accept(mem.get(i));
-                }
+                if (ReplayMetrics.ENABLED && i < hi)
+                    metrics.hits(hi - i);
+                mem.forEach(i, hi, action);
             }
 
             public long estimateSize() {
-                return (long) (getFence() - index);
+                return getFence() - index;
             }
 
             public int characteristics() {
-                return Spliterator.ORDERED
-                        | Spliterator.SIZED
-                        | Spliterator.SUBSIZED
-                        | getSrcIter().characteristics();
+                return characteristics;
             }
             public Comparator<? super T> getComparator() {
-                return getSrcIter().getComparator();
+                return srcComparator();
             }
         }
-
-		@Override
-		public void close() {
-			if(srcStream != null)	{
-				srcStream.close();
-			}
-		}
-
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+/**
+ * Runtime metrics of a replay, registered in the platform MBeanServer as
+ * org.javasync.streams:type=Replayer,id=N once its data source is opened,
+ * when the JVM runs with -Dorg.javasync.streams.metrics=true.
+ * Otherwise nothing is collected.
+ */
+public interface ReplayerMXBean {
+
+    /**
+     * Number of items memoized so far.
+     */
+    long getItems();
+
+    /**
+     * Estimated bytes on the heap holding the memoized items, not counting
+     * the objects they refer to, or -1 if unknown.
+     */
+    long getRetainedBytes();
+
+    /**
+     * Number of replays still reading items of an incomplete data source.
+     */
+    int getLiveCursors();
+
+    /**
+     * How many items each live cursor is behind the frontier.
+     */
+    long[] getCursorLags();
+
+    /**
+     * Number of items read that were already memoized.
+     */
+    long getHits();
+
+    /**
+     * Number of items pulled from the data source.
+     */
+    long getPulls();
+
+    /**
+     * Total nanoseconds spent pulling items from the data source.
+     */
+    long getPullNanos();
+
+    /**
+     * Total nanoseconds that readers waited for the lock of the frontier.
+     */
+    long getLockWaitNanos();
+
+    /**
+     * True when all items of the data source are memoized.
+     */
+    boolean isComplete();
+}
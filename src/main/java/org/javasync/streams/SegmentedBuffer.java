@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.javasync.streams;
+
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * An {@link AbstractSegmentedBuffer} of object references.
+ */
+final class SegmentedBuffer<T> extends AbstractSegmentedBuffer<Object[]> implements Memo<T> {
+
+    @Override
+    protected Object[] newSegment(int length) {
+        return new Object[length];
+    }
+
+    @Override
+    public boolean add(T item) {
+        tail()[offset(size())] = item;
+        commit();
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(long index) {
+        return (T) segment(index)[offset(index)];
+    }
+
+    @Override
+    public Memo<T> freeze() {
+        return size() <= MAX_ARRAY_SIZE
+            ? new FrozenMemo.OfRef<>(toArray())
+            : this;
+    }
+
+    /**
+     * Reader side. Performs the action for each item between origin
+     * (inclusive) and fence (exclusive), one segment at a time.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(long origin, long fence, Consumer<? super T> action) {
+        while (origin < fence) {
+            Object[] seg = segment(origin);
+            int from = offset(origin);
+            int to = (int) Math.min(SEGMENT_SIZE, from + (fence - origin));
+            for (int i = from; i < to; i++)
+                action.accept((T) seg[i]);
+            origin += to - from;
+        }
+    }
+
+    /**
+     * An {@link AbstractSegmentedBuffer} of int values.
+     */
+    static final class OfInt extends AbstractSegmentedBuffer<int[]> {
+
+        @Override
+        protected int[] newSegment(int length) {
+            return new int[length];
+        }
+
+        public void add(int item) {
+            tail()[offset(size())] = item;
+            commit();
+        }
+
+        public int get(long index) {
+            return segment(index)[offset(index)];
+        }
+
+        public void forEach(long origin, long fence, IntConsumer action) {
+            while (origin < fence) {
+                int[] seg = segment(origin);
+                int from = offset(origin);
+                int to = (int) Math.min(SEGMENT_SIZE, from + (fence - origin));
+                for (int i = from; i < to; i++)
+                    action.accept(seg[i]);
+                origin += to - from;
+            }
+        }
+    }
+
+    /**
+     * An {@link AbstractSegmentedBuffer} of long values.
+     */
+    static final class OfLong extends AbstractSegmentedBuffer<long[]> {
+
+        @Override
+        protected long[] newSegment(int length) {
+            return new long[length];
+        }
+
+        public void add(long item) {
+            tail()[offset(size())] = item;
+            commit();
+        }
+
+        public long get(long index) {
+            return segment(index)[offset(index)];
+        }
+
+        public void forEach(long origin, long fence, LongConsumer action) {
+            while (origin < fence) {
+                long[] seg = segment(origin);
+                int from = offset(origin);
+                int to = (int) Math.min(SEGMENT_SIZE, from + (fence - origin));
+                for (int i = from; i < to; i++)
+                    action.accept(seg[i]);
+                origin += to - from;
+            }
+        }
+    }
+
+    /**
+     * An {@link AbstractSegmentedBuffer} of double values.
+     */
+    static final class OfDouble extends AbstractSegmentedBuffer<double[]> {
+
+        @Override
+        protected double[] newSegment(int length) {
+            return new double[length];
+        }
+
+        public void add(double item) {
+            tail()[offset(size())] = item;
+            commit();
+        }
+
+        public double get(long index) {
+            return segment(index)[offset(index)];
+        }
+
+        public void forEach(long origin, long fence, DoubleConsumer action) {
+            while (origin < fence) {
+                double[] seg = segment(origin);
+                int from = offset(origin);
+                int to = (int) Math.min(SEGMENT_SIZE, from + (fence - origin));
+                for (int i = from; i < to; i++)
+                    action.accept(seg[i]);
+                origin += to - from;
+            }
+        }
+    }
+}
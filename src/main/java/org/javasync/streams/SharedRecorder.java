@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_MASK;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SIZE;
+
+/**
+ * A Recorder for a fixed set of replays sharing a single pass over the data
+ * source. It tracks the position of each live replay and, once sealed,
+ * releases the memoized segments that all of them have already read.
+ */
+final class SharedRecorder<T> extends AbstractRecorder<T, Spliterator<T>> {
+    private final SegmentedBuffer<T> mem = new SegmentedBuffer<>();
+    private final Consumer<T> append = mem::add;
+    private final Cursors cursors = new Cursors();
+    private volatile boolean sealed;
+
+    SharedRecorder(Supplier<Stream<T>> dataSrc) {
+        super(dataSrc);
+    }
+
+    @Override
+    long size() {
+        return mem.size();
+    }
+
+    @Override
+    boolean pull(Spliterator<T> srcIter) {
+        return srcIter.tryAdvance(append);
+    }
+
+    /**
+     * Declares that no replay will start from the beginning anymore.
+     */
+    void seal() {
+        sealed = true;
+        reclaim();
+    }
+
+    /**
+     * Releases the segments below the slowest live replay, once sealed.
+     */
+    void reclaim() {
+        lock.lock();
+        try {
+            if (sealed)
+                mem.release(cursors.min(mem.size()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    MemoizeIter memIterator() {
+        MemoizeIter iter = new MemoizeIter(getSrcIter());
+        // Registered before checking sealed, so that reclaim() sees it.
+        if (sealed) {
+            iter.close();
+            throw new IllegalStateException("Shared replay is sealed and cannot start from the beginning anymore!");
+        }
+        return iter;
+    }
+
+    class MemoizeIter extends Spliterators.AbstractSpliterator<T> {
+        long index = 0;
+        final Cursors.Cursor cursor = cursors.register(this, 0);
+
+        MemoizeIter(Spliterator<T> inner) {
+            super(srcEstimateSize(), inner.characteristics());
+        }
+
+        public boolean tryAdvance(Consumer<? super T> cons) {
+            long i = index;
+            if (i < mem.size() || advance(i)) {
+                T item = mem.get(i);
+                moveTo(i + 1);
+                cons.accept(item);
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        public void forEachRemaining(Consumer<? super T> cons) {
+            Objects.requireNonNull(cons);
+            forEachFrom(index, (from, to) -> {
+                while (from < to) { // One segment at a time
+                    long fence = Math.min(to, (from & ~SEGMENT_MASK) + SEGMENT_SIZE);
+                    mem.forEach(from, fence, cons);
+                    moveTo(from = fence);
+                }
+            });
+            close();
+        }
+
+        private void moveTo(long i) {
+            index = i;
+            cursor.moveTo(i);
+            if ((i & SEGMENT_MASK) == 0)
+                reclaim();
+        }
+
+        public Comparator<? super T> getComparator() {
+            return srcComparator();
+        }
+
+        /**
+         * Stops holding the items from index on.
+         */
+        void close() {
+            cursor.close();
+            reclaim();
+        }
+    }
+}
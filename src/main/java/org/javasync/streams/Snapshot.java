@@ -0,0 +1,429 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * A replay of the items saved in a snapshot file, which is memory-mapped
+ * lazily, one region at a time, and decoded straight from the mapping.
+ *
+ * The file has a header, then each item as its length followed by its
+ * bytes, as in {@link EncodedLog}, and last the offset of each item:
+ * <pre>
+ * magic:int version:int characteristics:int 0:int count:long index:long
+ * (length:int bytes)* padding (offset:long){count}
+ * </pre>
+ * No record crosses a region boundary, so each one is read within a single
+ * mapped buffer, and the writer pads the end of a region when needed.
+ */
+final class Snapshot<T> implements CloseableReplay<T> {
+    static final int MAGIC = 0x534D454D; // "SMEM"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int REGION_SHIFT = 30;
+    static final long REGION_SIZE = 1L << REGION_SHIFT;
+    static final int WRITE_BUFFER_BYTES = 1 << 16;
+    /**
+     * Characteristics kept in the file, which do not depend on a comparator
+     * nor on the traversal.
+     */
+    static final int SAVED_CHARACTERISTICS = Spliterator.DISTINCT | Spliterator.NONNULL;
+
+    private final Codec<T> codec;
+    private final Regions regions;
+    private final Cleaner.Cleanable cleanable;
+    private final long count;
+    private final long index;
+    private final int characteristics;
+    private final CloseGuard guard = new CloseGuard();
+
+    private Snapshot(Codec<T> codec, Regions regions, int characteristics, long count, long index) {
+        this.codec = codec;
+        this.regions = regions;
+        this.characteristics = characteristics;
+        this.count = count;
+        this.index = index;
+        this.cleanable = OffHeapMemo.CLEANER.register(this, regions);
+    }
+
+    /**
+     * Traverses the stream of the replay to its end, writing each item into
+     * a new file that atomically replaces the given one once complete.
+     */
+    static <T> void save(Supplier<? extends Stream<T>> replay, Codec<T> codec, Path file) throws IOException {
+        Objects.requireNonNull(codec);
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, WRITE);
+                 Stream<T> data = replay.get()) {
+                Spliterator<T> iter = data.spliterator();
+                Writer<T> out = new Writer<>(ch, codec);
+                out.skip(HEADER_BYTES);
+                Iterator<T> items = Spliterators.iterator(iter);
+                while (items.hasNext())
+                    out.add(items.next());
+                long idx = out.writeIndex();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(iter.characteristics() & SAVED_CHARACTERISTICS)
+                    .putInt(0)
+                    .putLong(out.offsets.size())
+                    .putLong(idx);
+                header.flip();
+                while (header.hasRemaining())
+                    ch.write(header, header.position());
+                ch.force(false);
+            }
+            Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Checks the header and maps nothing else until items are read.
+     */
+    static <T> Snapshot<T> open(Path file, Codec<T> codec) throws IOException {
+        Objects.requireNonNull(codec);
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            long size = ch.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (size < HEADER_BYTES)
+                throw new IOException(file + " is not a replay snapshot!");
+            while (header.hasRemaining())
+                ch.read(header, header.position());
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a replay snapshot!");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            int chars = header.getInt() & SAVED_CHARACTERISTICS;
+            header.getInt();
+            long count = header.getLong();
+            long idx = header.getLong();
+            if (count < 0 || idx < HEADER_BYTES || idx + count * Long.BYTES != size)
+                throw new IOException("Truncated or corrupted snapshot " + file);
+            return new Snapshot<>(codec, new Regions(file, size), chars, count, idx);
+        }
+    }
+
+    long size() {
+        return count;
+    }
+
+    @Override
+    public Stream<T> get() {
+        if (guard.isClosed())
+            throw new IllegalStateException("Replay is already closed!");
+        return stream(new RangeSpliterator(0, count), false);
+    }
+
+    /**
+     * Waits for the reads in flight and unmaps the file. Items cannot be
+     * read afterwards.
+     */
+    @Override
+    public void close() {
+        if (guard.close())
+            cleanable.clean();
+    }
+
+    T item(long i) {
+        long stamp = guard.enter();
+        try {
+            return read(i);
+        } finally {
+            guard.exit(stamp);
+            Reference.reachabilityFence(this); // Keeps the Cleaner away while reading
+        }
+    }
+
+    /**
+     * Decodes the items from origin on into the given chunk under a single
+     * stamp of the guard.
+     */
+    void items(long origin, Object[] chunk, int n) {
+        long stamp = guard.enter();
+        try {
+            for (int i = 0; i < n; i++)
+                chunk[i] = read(origin + i);
+        } finally {
+            guard.exit(stamp);
+            Reference.reachabilityFence(this); // Keeps the Cleaner away while reading
+        }
+    }
+
+    /**
+     * Only called holding a stamp of the guard.
+     */
+    private T read(long i) {
+        long address = index + i * Long.BYTES;
+        long offset = regions.get(address).getLong(offsetInRegion(address));
+        ByteBuffer src = regions.get(offset).duplicate();
+        int from = offsetInRegion(offset);
+        int len = src.getInt(from);
+        src.limit(from + Integer.BYTES + len).position(from + Integer.BYTES);
+        return codec.read(src);
+    }
+
+    static int offsetInRegion(long address) {
+        return (int) (address & (REGION_SIZE - 1));
+    }
+
+    /**
+     * Reads items by index, so it splits in halves as an array spliterator.
+     */
+    final class RangeSpliterator implements Spliterator<T> {
+        private long origin;
+        private final long fence;
+
+        RangeSpliterator(long origin, long fence) {
+            this.origin = origin;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (origin >= fence)
+                return false;
+            action.accept(item(origin++));
+            return true;
+        }
+
+        /**
+         * Decodes chunks of items under a single stamp of the guard, and
+         * only then hands them to the action, outside of it.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super T> action) {
+            long i = origin;
+            origin = fence;
+            if (i >= fence)
+                return;
+            Object[] chunk = new Object[(int) Math.min(OffHeapMemo.CHUNK, fence - i)];
+            while (i < fence) {
+                int n = (int) Math.min(chunk.length, fence - i);
+                items(i, chunk, n);
+                for (int k = 0; k < n; k++) {
+                    action.accept((T) chunk[k]);
+                    chunk[k] = null;
+                }
+                i += n;
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            long mid = (origin + fence) >>> 1;
+            if (mid <= origin)
+                return null;
+            RangeSpliterator prefix = new RangeSpliterator(origin, mid);
+            origin = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics | ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Writes records through a small buffer, padding the end of a region
+     * when the next record does not fit in it.
+     */
+    static final class Writer<T> {
+        private final FileChannel ch;
+        private final Codec<T> codec;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        final SegmentedBuffer.OfLong offsets = new SegmentedBuffer.OfLong();
+        private long position;
+
+        Writer(FileChannel ch, Codec<T> codec) {
+            this.ch = ch;
+            this.codec = codec;
+        }
+
+        void skip(long bytes) throws IOException {
+            flush();
+            position += bytes;
+            ch.position(position);
+        }
+
+        void add(T item) throws IOException {
+            int len = codec.sizeOf(item);
+            long needed = Integer.BYTES + (long) len;
+            if (needed > REGION_SIZE)
+                throw new IllegalArgumentException("Cannot save an item of " + len + " bytes!");
+            if (offsetInRegion(position) + needed > REGION_SIZE)
+                skip(REGION_SIZE - offsetInRegion(position));
+            ByteBuffer dst = buf;
+            if (needed > buf.remaining()) {
+                flush();
+                if (needed > buf.capacity())
+                    dst = ByteBuffer.allocate((int) needed);
+            }
+            int from = dst.position();
+            dst.putInt(len);
+            codec.write(item, dst);
+            if (dst.position() != from + needed)
+                throw new IllegalStateException(String.format(
+                        "Codec wrote %d bytes, but sizeOf() reported %d!", dst.position() - from - Integer.BYTES, len));
+            offsets.add(position);
+            position += needed;
+            if (dst != buf)
+                write(dst);
+        }
+
+        /**
+         * Writes the offsets 8-byte aligned, so none crosses a region
+         * boundary, and returns where they start.
+         */
+        long writeIndex() throws IOException {
+            skip(-position & (Long.BYTES - 1));
+            long idx = position;
+            long n = offsets.size();
+            for (long i = 0; i < n; i++) {
+                if (buf.remaining() < Long.BYTES)
+                    flush();
+                buf.putLong(offsets.get(i));
+            }
+            position += n * Long.BYTES;
+            flush();
+            return idx;
+        }
+
+        private void flush() throws IOException {
+            write(buf);
+            buf.clear();
+        }
+
+        private void write(ByteBuffer src) throws IOException {
+            src.flip();
+            while (src.hasRemaining())
+                ch.write(src);
+        }
+    }
+
+    /**
+     * The regions of the file mapped so far. It is also the action that
+     * unmaps them, which a Cleaner may run, so it must not refer to the
+     * Snapshot.
+     */
+    static final class Regions implements Runnable {
+        private final Path file;
+        private final long size;
+        private final AtomicReferenceArray<MappedByteBuffer> mapped;
+        /**
+         * Guards mapping and unmapping, which do I/O, so it is not a monitor.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean released;
+
+        Regions(Path file, long size) {
+            this.file = file;
+            this.size = size;
+            this.mapped = new AtomicReferenceArray<>((int) ((size + REGION_SIZE - 1) >>> REGION_SHIFT));
+        }
+
+        /**
+         * Returns the region with the given file address, mapping it on first
+         * use. Readers must use absolute gets or a duplicate().
+         */
+        ByteBuffer get(long address) {
+            int r = (int) (address >>> REGION_SHIFT);
+            MappedByteBuffer region = mapped.get(r);
+            if (region != null)
+                return region;
+            lock.lock();
+            try {
+                if (released)
+                    throw new IllegalStateException("Replay is already closed!");
+                region = mapped.get(r);
+                if (region == null) {
+                    long start = (long) r << REGION_SHIFT;
+                    try (FileChannel ch = FileChannel.open(file, READ)) {
+                        region = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    mapped.set(r, region);
+                }
+                return region;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                released = true;
+                for (int r = 0; r < mapped.length(); r++) {
+                    MappedByteBuffer region = mapped.getAndSet(r, null);
+                    if (region != null)
+                        DirectBuffers.free(region);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
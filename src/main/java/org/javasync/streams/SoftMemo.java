@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SHIFT;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SIZE;
+import static org.javasync.streams.AbstractSegmentedBuffer.offset;
+import static org.javasync.streams.AbstractSegmentedBuffer.segmentOf;
+
+/**
+ * A Memo whose full segments are only softly reachable, so the garbage
+ * collector may reclaim them under memory pressure. A reader that misses
+ * a reclaimed segment rebuilds it from a new stream of the source, which
+ * must be deterministic, i.e. every call to get() yields the same items.
+ *
+ * The rebuilding stream is kept open for the next miss, so a reader going
+ * forward over many reclaimed segments skips ahead rather than starting
+ * over for each one.
+ *
+ * As SegmentedBuffer, there is a single writer at a time and readers get
+ * any item below size() without locking, unless it has to be rebuilt.
+ */
+final class SoftMemo<T> implements Memo<T> {
+    private final Supplier<? extends Stream<T>> dataSrc;
+    private volatile SoftReference<?>[] segments = new SoftReference<?>[8];
+    private volatile long size;
+    /**
+     * Strong reference to the segment being filled, which is not rebuilt.
+     */
+    private Object[] tail;
+    /**
+     * Guarded by rebuildLock, which is not a monitor, because rebuilding
+     * may block on the source.
+     */
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private Stream<T> rebuildStream;
+    private Spliterator<T> rebuildIter;
+    private long rebuildIndex;
+    private Object rebuilt;
+
+    SoftMemo(Supplier<? extends Stream<T>> dataSrc) {
+        this.dataSrc = dataSrc;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(T item) {
+        long s = size;
+        int i = offset(s);
+        if (i == 0) {
+            int seg = segmentOf(s);
+            SoftReference<?>[] dir = segments;
+            if (seg == dir.length)
+                dir = Arrays.copyOf(dir, dir.length << 1);
+            tail = new Object[SEGMENT_SIZE];
+            dir[seg] = new SoftReference<>(tail);
+            segments = dir;
+        }
+        tail[i] = item;
+        size = s + 1;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(long index) {
+        return (T) segment(index)[offset(index)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(long origin, long fence, Consumer<? super T> action) {
+        while (origin < fence) {
+            Object[] seg = segment(origin);
+            int from = offset(origin);
+            int to = (int) Math.min(SEGMENT_SIZE, from + (fence - origin));
+            for (int i = from; i < to; i++)
+                action.accept((T) seg[i]);
+            origin += to - from;
+        }
+    }
+
+    /**
+     * Closes the stream used to rebuild segments, if any.
+     */
+    @Override
+    public void close() {
+        rebuildLock.lock();
+        try {
+            if (rebuildStream != null) {
+                rebuildStream.close();
+                rebuildStream = null;
+                rebuildIter = null;
+            }
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Clears the reference to the given full segment, as the garbage
+     * collector may do under memory pressure.
+     */
+    void reclaim(int seg) {
+        if ((long) (seg + 1) << SEGMENT_SHIFT > size)
+            throw new IllegalArgumentException("Only full segments may be reclaimed!");
+        segments[seg].clear();
+    }
+
+    /**
+     * Reader side. The index must be lower than a previously read size.
+     */
+    private Object[] segment(long index) {
+        int seg = segmentOf(index);
+        Object[] items = (Object[]) segments[seg].get();
+        return items != null ? items : rebuild(seg);
+    }
+
+    /**
+     * Only full segments are ever reclaimed, because the tail is strongly
+     * reachable, so a rebuild always reads SEGMENT_SIZE items.
+     */
+    private Object[] rebuild(int seg) {
+        rebuildLock.lock();
+        try {
+            Object[] items = (Object[]) segments[seg].get();
+            if (items != null)
+                return items; // Rebuilt meanwhile by another reader
+            long origin = (long) seg << SEGMENT_SHIFT;
+            if (rebuildIter == null || rebuildIndex > origin) {
+                close();
+                rebuildStream = dataSrc.get();
+                rebuildIter = rebuildStream.spliterator();
+                rebuildIndex = 0;
+            }
+            for (; rebuildIndex < origin; rebuildIndex++)
+                next();
+            items = new Object[SEGMENT_SIZE];
+            for (int i = 0; i < SEGMENT_SIZE; i++, rebuildIndex++)
+                items[i] = next();
+            // A writer growing the directory at the same time may drop this
+            // reference, which only costs another rebuild.
+            segments[seg] = new SoftReference<>(items);
+            return items;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private Object next() {
+        if (!rebuildIter.tryAdvance(item -> rebuilt = item))
+            throw new IllegalStateException(
+                "Cannot rebuild reclaimed items, because the source is not deterministic!");
+        Object item = rebuilt;
+        rebuilt = null;
+        return item;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SIZE;
+import static org.javasync.streams.AbstractSegmentedBuffer.offset;
+
+/**
+ * A Memo that keeps its first maxInMemory items on the heap and spills the
+ * remaining ones to memory-mapped temporary files.
+ *
+ * Spilled items are first appended to a pending buffer on the heap, so the
+ * producer never waits for the disk. A write-behind task encodes them into
+ * the files and releases the pending segments it has written. The producer
+ * only waits when the flusher falls more than MAX_PENDING items behind.
+ *
+ * The files are unmapped and deleted on close(), once no reader nor the
+ * flusher is touching them, or by a Cleaner once the Memo becomes
+ * unreachable.
+ */
+final class SpillMemo<T> implements Memo<T> {
+    static final int SEGMENT_BYTES = 16 << 20;
+    static final int MAX_PENDING = SEGMENT_SIZE << 6;
+    /**
+     * A single write-behind thread shared by all SpillMemos.
+     */
+    private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(task -> {
+        Thread t = new Thread(task, "streamemo-spill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long maxInMemory;
+    private final SegmentedBuffer<T> heap = new SegmentedBuffer<>();
+    /**
+     * Items beyond maxInMemory that may not be flushed yet. Both the producer
+     * and the flusher write to it, so they do it holding pendingLock.
+     */
+    private final SegmentedBuffer<T> pending = new SegmentedBuffer<>();
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final Condition flushed = pendingLock.newCondition();
+    private final EncodedLog<T> spilled;
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final Cleaner.Cleanable cleanable;
+    private final CloseGuard guard = new CloseGuard();
+    private volatile Throwable failure;
+
+    SpillMemo(Codec<T> codec, long maxInMemory, Path dir) {
+        if (maxInMemory < 0)
+            throw new IllegalArgumentException("maxInMemory must not be negative!");
+        Arena arena = new Arena.TempFiles(dir);
+        this.maxInMemory = maxInMemory;
+        this.spilled = new EncodedLog<>(codec, arena, SEGMENT_BYTES);
+        this.cleanable = OffHeapMemo.CLEANER.register(this, arena);
+    }
+
+    /**
+     * Pending is only appended once heap is full, so there is no window
+     * where a reader sees the sum of two inconsistent sizes.
+     */
+    @Override
+    public long size() {
+        long p = pending.size();
+        return p == 0 ? heap.size() : maxInMemory + p;
+    }
+
+    @Override
+    public boolean add(T item) {
+        if (heap.size() < maxInMemory) {
+            heap.add(item);
+            return true;
+        }
+        checkFailure();
+        pendingLock.lock();
+        try {
+            while (pending.size() - spilled.size() >= MAX_PENDING && failure == null && !guard.isClosed())
+                awaitFlusher();
+            pending.add(item);
+        } finally {
+            pendingLock.unlock();
+        }
+        if (flushing.compareAndSet(false, true))
+            FLUSHER.execute(this::flush);
+        return true;
+    }
+
+    @Override
+    public T get(long index) {
+        if (index < maxInMemory)
+            return heap.get(index);
+        long i = index - maxInMemory;
+        if (i >= spilled.size()) {
+            // A null segment has been flushed meanwhile and released.
+            Object[] seg = pending.segment(i);
+            if (seg != null) {
+                @SuppressWarnings("unchecked")
+                T item = (T) seg[offset(i)];
+                return item;
+            }
+        }
+        long stamp = guard.enter();
+        try {
+            return spilled.get(i);
+        } finally {
+            guard.exit(stamp);
+            Reference.reachabilityFence(this); // Keeps the Cleaner away while reading
+        }
+    }
+
+    @Override
+    public void forEach(long origin, long fence, Consumer<? super T> action) {
+        long split = Math.min(fence, maxInMemory);
+        if (origin < split) {
+            heap.forEach(origin, split, action);
+            origin = split;
+        }
+        for (; origin < fence; origin++)
+            action.accept(get(origin));
+    }
+
+    /**
+     * Waits for the reads in flight and for the flusher to stop writing,
+     * then unmaps and deletes the spill files. Spilled items cannot be read
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        if (!guard.close())
+            return;
+        pendingLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            pendingLock.unlock();
+        }
+        cleanable.clean();
+    }
+
+    /**
+     * Write-behind task. Encodes the pending items into the spill files and
+     * releases the pending segments already written, then gives up the
+     * flushing flag, checking again for items added meanwhile. It stops as
+     * soon as close() starts, which waits for the item being written.
+     */
+    private void flush() {
+        do {
+            try {
+                for (long i = spilled.size(); i < pending.size(); i++) {
+                    long stamp = guard.tryEnter();
+                    if (stamp == 0)
+                        break;
+                    try {
+                        spilled.add(pending.get(i));
+                    } finally {
+                        guard.exit(stamp);
+                    }
+                    if (offset(i + 1) == 0)
+                        released(i + 1);
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+            flushing.set(false);
+            released(spilled.size());
+        } while (failure == null
+            && !guard.isClosed()
+            && spilled.size() < pending.size()
+            && flushing.compareAndSet(false, true));
+    }
+
+    private void released(long fence) {
+        pendingLock.lock();
+        try {
+            pending.release(fence);
+            flushed.signalAll();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private void awaitFlusher() {
+        try {
+            flushed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the spill flusher!", e);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable e = failure;
+        if (e != null)
+            throw new IllegalStateException("Failed to spill items to disk!", e);
+        if (guard.isClosed())
+            throw new IllegalStateException("Replay is already closed!");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the items of the stream of a CompletionStage, once complete.
+ *
+ * Items are pulled from the stream by the thread that requests them, or
+ * that completes the stage, and only one thread delivers at a time.
+ * Nested requests from onNext just add to the demand of that thread.
+ */
+final class StagePublisher<T> implements Flow.Publisher<T> {
+    private final CompletionStage<? extends Stream<T>> stage;
+
+    StagePublisher(CompletionStage<? extends Stream<T>> stage) {
+        this.stage = Objects.requireNonNull(stage);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        StageSubscription subscription = new StageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        stage.whenComplete(subscription::start);
+    }
+
+    private final class StageSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile Stream<T> stream;
+        private Iterator<T> iter; // Only used by the delivering thread
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        StageSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start(Stream<T> stream, Throwable failure) {
+            if (failure != null) {
+                cancelled = true;
+                subscriber.onError(failure);
+                return;
+            }
+            this.stream = stream;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0)
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items, which is not positive (Rule 3.9)!");
+            else
+                requested.getAndAccumulate(n, (r, m) -> r + m < 0 ? Long.MAX_VALUE : r + m);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain(); // Closes the stream
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                Stream<T> s = stream;
+                if (cancelled) {
+                    if (s != null)
+                        s.close();
+                    return; // Keeps pending set, so it never drains again.
+                }
+                if (invalidRequest != null) {
+                    cancelled = true;
+                    if (s != null)
+                        s.close();
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                if (s != null) {
+                    try {
+                        if (iter == null)
+                            iter = s.iterator();
+                        long e = 0;
+                        for (long r = requested.get(); e < r && !cancelled && iter.hasNext(); e++)
+                            subscriber.onNext(iter.next());
+                        requested.addAndGet(-e);
+                        if (!cancelled && !iter.hasNext()) {
+                            cancelled = true;
+                            s.close();
+                            subscriber.onComplete();
+                            return;
+                        }
+                    } catch (Throwable e) {
+                        cancelled = true;
+                        s.close();
+                        subscriber.onError(e);
+                        return;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
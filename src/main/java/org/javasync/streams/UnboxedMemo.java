@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import java.util.function.Consumer;
+
+import static org.javasync.streams.AbstractSegmentedBuffer.MAX_ARRAY_SIZE;
+
+/**
+ * A Memo of boxed Integer, Long or Double items that keeps them unboxed
+ * in a primitive SegmentedBuffer and boxes them again on get().
+ * It rejects null and items of any other type.
+ *
+ * @param <T> the type of memoized items, which is the box of the column.
+ */
+abstract class UnboxedMemo<T, B extends AbstractSegmentedBuffer<?>> implements Memo<T> {
+    final B values;
+
+    UnboxedMemo(B values) {
+        this.values = values;
+    }
+
+    @Override
+    public final long size() {
+        return values.size();
+    }
+
+    static final class OfInt<T> extends UnboxedMemo<T, SegmentedBuffer.OfInt> {
+        OfInt() {
+            super(new SegmentedBuffer.OfInt());
+        }
+
+        @Override
+        public long retainedBytes() {
+            return size() * Integer.BYTES;
+        }
+
+        @Override
+        public Memo<T> freeze() {
+            return size() <= MAX_ARRAY_SIZE
+                ? new FrozenMemo.OfInt<>(values.toArray())
+                : this;
+        }
+
+        @Override
+        public boolean add(T item) {
+            if (!(item instanceof Integer))
+                return false;
+            values.add((Integer) item);
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Integer.valueOf(values.get(index));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            values.forEach(origin, fence, (int item) -> action.accept((T) Integer.valueOf(item)));
+        }
+    }
+
+    static final class OfLong<T> extends UnboxedMemo<T, SegmentedBuffer.OfLong> {
+        OfLong() {
+            super(new SegmentedBuffer.OfLong());
+        }
+
+        @Override
+        public Memo<T> freeze() {
+            return size() <= MAX_ARRAY_SIZE
+                ? new FrozenMemo.OfLong<>(values.toArray())
+                : this;
+        }
+
+        @Override
+        public boolean add(T item) {
+            if (!(item instanceof Long))
+                return false;
+            values.add((Long) item);
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Long.valueOf(values.get(index));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            values.forEach(origin, fence, (long item) -> action.accept((T) Long.valueOf(item)));
+        }
+    }
+
+    static final class OfDouble<T> extends UnboxedMemo<T, SegmentedBuffer.OfDouble> {
+        OfDouble() {
+            super(new SegmentedBuffer.OfDouble());
+        }
+
+        @Override
+        public Memo<T> freeze() {
+            return size() <= MAX_ARRAY_SIZE
+                ? new FrozenMemo.OfDouble<>(values.toArray())
+                : this;
+        }
+
+        @Override
+        public boolean add(T item) {
+            if (!(item instanceof Double))
+                return false;
+            values.add((Double) item);
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(long index) {
+            return (T) Double.valueOf(values.get(index));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(long origin, long fence, Consumer<? super T> action) {
+            values.forEach(origin, fence, (double item) -> action.accept((T) Double.valueOf(item)));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import org.javasync.streams.Replayer.WindowPolicy;
+
+import java.lang.invoke.VarHandle;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A Recorder that only retains the most recent items of the data source in
+ * a ring buffer, so memory stays bounded even for infinite sources.
+ * A reader that falls behind the oldest retained item is handled according
+ * to the WindowPolicy.
+ *
+ * Readers get retained items without locking, seqlock style: the writer
+ * claims a slot before overwriting it and the reader validates the claim
+ * after reading the item.
+ */
+final class WindowRecorder<T> extends AbstractRecorder<T, Spliterator<T>> {
+    /**
+     * Timeout of a producer waiting for the slowest reader under the BLOCK
+     * policy, after which it checks again for unreachable readers.
+     */
+    static final long WAIT_MILLIS = 100;
+
+    private final Object[] ring;
+    private final int capacity;
+    private final WindowPolicy policy;
+    private final Cursors cursors = new Cursors();
+    private volatile long size;
+    /**
+     * One past the index of the item being written, which is ahead of size
+     * while the writer overwrites the item at claimed - 1 - capacity.
+     */
+    private volatile long claimed;
+    private volatile int waiters;
+    /**
+     * Signalled by readers that move while the producer waits for them.
+     */
+    private final Condition readerMoved = lock.newCondition();
+    private final Consumer<T> append = this::append;
+
+    WindowRecorder(Supplier<Stream<T>> dataSrc, int maxRetained, WindowPolicy policy) {
+        super(dataSrc);
+        if (maxRetained <= 0)
+            throw new IllegalArgumentException("The replay window must retain at least one item!");
+        this.ring = new Object[maxRetained];
+        this.capacity = maxRetained;
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+    @Override
+    long size() {
+        return size;
+    }
+
+    /**
+     * Index of the oldest retained item.
+     */
+    long first() {
+        return Math.max(0, size - capacity);
+    }
+
+    @Override
+    boolean pull(Spliterator<T> srcIter) {
+        if (policy == WindowPolicy.BLOCK)
+            awaitSlowestReader();
+        return srcIter.tryAdvance(append);
+    }
+
+    private void append(T item) {
+        long s = size;
+        claimed = s + 1;
+        VarHandle.storeStoreFence(); // Claim the slot before overwriting it
+        ring[(int) (s % capacity)] = item;
+        size = s + 1;
+    }
+
+    /**
+     * Called under the lock. Waits while the next item would overwrite
+     * an item that some live reader has not read yet.
+     */
+    private void awaitSlowestReader() {
+        long lost; // Index of the item overwritten by the next append
+        while ((lost = size - capacity) >= 0 && cursors.min(Long.MAX_VALUE) <= lost) {
+            waiters++;
+            try {
+                readerMoved.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the slowest reader of the replay window!", e);
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    MemoizeIter memIterator() {
+        return new MemoizeIter(getSrcIter());
+    }
+
+    /**
+     * Replays items from index 0, or from the oldest retained item under
+     * the SKIP policy. It is never SIZED, because a reader may skip items.
+     */
+    class MemoizeIter extends Spliterators.AbstractSpliterator<T> {
+        long index = 0;
+        final Cursors.Cursor cursor;
+
+        MemoizeIter(Spliterator<T> inner) {
+            super(srcEstimateSize(), inner.characteristics()
+                    & ~(Spliterator.SIZED | Spliterator.SUBSIZED));
+            cursor = policy == WindowPolicy.BLOCK && first() == 0
+                    ? cursors.register(this, 0)
+                    : null;
+        }
+
+        public boolean tryAdvance(Consumer<? super T> cons) {
+            for (;;) {
+                long i = index;
+                if (i >= size && !advance(i)) {
+                    close();
+                    return false;
+                }
+                @SuppressWarnings("unchecked")
+                T item = (T) ring[(int) (i % capacity)];
+                VarHandle.loadLoadFence(); // Read the item before validating it
+                if (i < claimed - capacity) {
+                    index = overrun(i);
+                    continue;
+                }
+                index = i + 1;
+                if (cursor != null) {
+                    cursor.moveTo(i + 1);
+                    if (waiters > 0) {
+                        lock.lock();
+                        try {
+                            readerMoved.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+                cons.accept(item);
+                return true;
+            }
+        }
+
+        /**
+         * Returns the index to resume from after the item at given index
+         * was evicted, or throws IllegalStateException.
+         */
+        private long overrun(long index) {
+            if (policy == WindowPolicy.SKIP)
+                return first();
+            close();
+            throw new IllegalStateException(String.format(
+                    "Item %d is no longer retained by a replay window of %d items!", index, capacity));
+        }
+
+        public Comparator<? super T> getComparator() {
+            return srcComparator();
+        }
+
+        /**
+         * Releases the producer from waiting for this reader.
+         */
+        void close() {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+}
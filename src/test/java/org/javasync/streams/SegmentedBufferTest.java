@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_MASK;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SHIFT;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SIZE;
+import static org.javasync.streams.AbstractSegmentedBuffer.offset;
+import static org.javasync.streams.AbstractSegmentedBuffer.segmentOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Index arithmetic of segmented buffers, which must hold beyond the int
+ * range, where filling a buffer does not fit in the heap of a test.
+ */
+public class SegmentedBufferTest {
+
+    @Test
+    public void testIndexesAboveIntRange() {
+        long[] indexes = {
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE + 1L,
+            (1L << 32) - 1,
+            1L << 32,
+            (1L << 32) + SEGMENT_SIZE + 7,
+            (1L << (31 + SEGMENT_SHIFT)) - 1
+        };
+        for (long index : indexes) {
+            int seg = segmentOf(index);
+            int off = offset(index);
+            assertTrue(seg >= 0);
+            assertTrue(off >= 0 && off < SEGMENT_SIZE);
+            assertEquals(index, ((long) seg << SEGMENT_SHIFT) + off);
+        }
+        assertEquals(SEGMENT_MASK, offset(Integer.MAX_VALUE));
+        assertEquals(0, offset(Integer.MAX_VALUE + 1L));
+        assertEquals(1 << (31 - SEGMENT_SHIFT), segmentOf(Integer.MAX_VALUE + 1L));
+        assertEquals(Integer.MAX_VALUE, segmentOf((1L << (31 + SEGMENT_SHIFT)) - 1));
+    }
+
+    @Test
+    public void testItemsAcrossSegments() {
+        long n = 3L * SEGMENT_SIZE + 5;
+        SegmentedBuffer.OfLong buf = new SegmentedBuffer.OfLong();
+        for (long i = 0; i < n; i++)
+            buf.add(i);
+        assertEquals(n, buf.size());
+        assertEquals(SEGMENT_SIZE, buf.get(SEGMENT_SIZE));
+        List<Long> items = new ArrayList<>();
+        buf.forEach(SEGMENT_SIZE - 2, 2L * SEGMENT_SIZE + 2, items::add);
+        assertEquals(LongStream.range(SEGMENT_SIZE - 2, 2L * SEGMENT_SIZE + 2).boxed().collect(toList()), items);
+        buf.release(2L * SEGMENT_SIZE + 1);
+        assertEquals(n - 1, buf.get(n - 1));
+        assertEquals(2L * SEGMENT_SIZE, buf.get(2L * SEGMENT_SIZE));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018, Miguel Gamboa (gamboa.pt)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.javasync.streams;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.javasync.streams.AbstractSegmentedBuffer.SEGMENT_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Rebuilding of reclaimed segments, which the garbage collector only does
+ * under memory pressure, so these tests reclaim them explicitly.
+ */
+public class SoftMemoTest {
+
+    @Test
+    public void testRebuildSkipsAheadOnTheSameStream() {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger pulled = new AtomicInteger();
+        int size = 5 * SEGMENT_SIZE + 10;
+        Supplier<Stream<Integer>> src = () -> {
+            calls.incrementAndGet();
+            return IntStream.range(0, size).boxed().peek(n -> pulled.incrementAndGet());
+        };
+        SoftMemo<Integer> memo = new SoftMemo<>(src);
+        src.get().forEach(memo::add);
+        calls.set(0);
+        pulled.set(0);
+        memo.reclaim(1);
+        memo.reclaim(3);
+        List<Integer> items = new ArrayList<>();
+        memo.forEach(0, size, items::add);
+        assertEquals(IntStream.range(0, size).boxed().collect(toList()), items);
+        assertEquals(1, calls.get()); // Both segments rebuilt from one stream
+        assertEquals(4 * SEGMENT_SIZE, pulled.get()); // Up to the end of segment 3
+        assertEquals(SEGMENT_SIZE + 1, memo.get(SEGMENT_SIZE + 1).intValue());
+        assertEquals(1, calls.get()); // Rebuilt segments stay memoized
+        memo.reclaim(0);
+        assertEquals(7, memo.get(7).intValue());
+        assertEquals(2, calls.get()); // Going back starts a new stream
+        memo.close();
+    }
+
+    @Test
+    public void testRebuildFailsWithANonDeterministicSource() {
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Stream<Integer>> src = () -> IntStream
+            .range(0, calls.incrementAndGet() == 1 ? 3 * SEGMENT_SIZE : SEGMENT_SIZE)
+            .boxed();
+        SoftMemo<Integer> memo = new SoftMemo<>(src);
+        src.get().forEach(memo::add);
+        memo.reclaim(1);
+        assertThrows(IllegalStateException.class, () -> memo.get(SEGMENT_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> memo.reclaim(3));
+        memo.close();
+    }
+}
@@ -24,26 +24,72 @@
 
 package org.javasync.streams.test;
 
+import org.javasync.streams.AsyncReplay;
+import org.javasync.streams.CloseableReplay;
+import org.javasync.streams.Codec;
+import org.javasync.streams.PublishedReplay;
+import org.javasync.streams.ReplayCache;
 import org.javasync.streams.Replayer;
+import org.javasync.streams.ReplayerMXBean;
+import org.javasync.streams.SharedReplay;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static java.lang.System.out;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Stream.*;
+import static java.util.stream.StreamSupport.stream;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class ReplayTest {
 
@@ -61,6 +107,50 @@ public class ReplayTest {
         System.out.println(); // throws ConcurrentModificationException
     }
 
+    @Test
+    public void testConcurrentReadersOnSameReplay() throws Exception {
+        final int size = 100_000;
+        final int nrOfReaders = 32;
+        AtomicInteger pulls = new AtomicInteger();
+        Supplier<Stream<Integer>> nrs = Replayer.replay(IntStream
+                .range(0, size)
+                .peek(n -> pulls.incrementAndGet())
+                .boxed());
+        nrs.get().limit(size / 2).forEach(n -> {}); // Memoize half of the items
+        ExecutorService pool = Executors.newFixedThreadPool(nrOfReaders);
+        try {
+            List<Future<Long>> sums = new ArrayList<>();
+            for (int i = 0; i < nrOfReaders; i++)
+                sums.add(pool.submit(() -> nrs.get().mapToLong(Integer::longValue).sum()));
+            for (Future<Long> sum : sums)
+                assertEquals((long) size * (size - 1) / 2, (long) sum.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(size, pulls.get());
+    }
+
+    @Test
+    public void testBulkTraversalInterleavedWithTryAdvance() {
+        AtomicInteger pulls = new AtomicInteger();
+        Supplier<Stream<Integer>> nrs = Replayer.replay(() -> IntStream
+                .range(0, 3000)
+                .peek(n -> pulls.incrementAndGet())
+                .boxed());
+        List<Integer> first = new ArrayList<>();
+        List<Integer> second = new ArrayList<>();
+        Spliterator<Integer> iter1 = nrs.get().spliterator();
+        for (int i = 0; i < 100; i++) iter1.tryAdvance(first::add);
+        Spliterator<Integer> iter2 = nrs.get().spliterator();
+        for (int i = 0; i < 10; i++) iter2.tryAdvance(second::add);
+        iter1.forEachRemaining(first::add);
+        iter2.forEachRemaining(second::add);
+        Object[] expected = IntStream.range(0, 3000).boxed().toArray();
+        assertArrayEquals(expected, first.toArray());
+        assertArrayEquals(expected, second.toArray());
+        assertEquals(3000, pulls.get());
+    }
+
     @Test
     public void testReplayInfiniteRandomStream() {
         Random rnd = new Random();
@@ -133,11 +223,11 @@ public class ReplayTest {
 
     @Test
     public void testLongStream() {
-        assertThrows(IllegalStateException.class, () -> {
-            long size = ((long) Integer.MAX_VALUE) + 10;
-            Supplier<Stream<Long>> nrs = Replayer.replay(LongStream.range(0, size).boxed());
-            assertEquals(size, nrs.get().count());
-        });
+        long size = ((long) Integer.MAX_VALUE) + 10;
+        Supplier<Stream<Long>> nrs = Replayer.replay(LongStream.range(0, size).boxed());
+        assertEquals(size, nrs.get().count());
+        assertEquals(size, nrs.get().spliterator().estimateSize());
+        assertEquals(45, (long) nrs.get().limit(10).reduce(Long::sum).get());
     }
     @Test
     public void testParallel() {
@@ -151,6 +241,827 @@ public class ReplayTest {
                 .get());
 
     }
+    @Test
+    public void testReplayInt() {
+        AtomicInteger pulls = new AtomicInteger();
+        Supplier<IntStream> nrs = Replayer.replayInt(IntStream
+                .range(0, 5000)
+                .peek(n -> pulls.incrementAndGet()));
+        assertEquals(10, nrs.get().limit(5).sum());
+        assertEquals(4999, nrs.get().max().getAsInt());
+        assertArrayEquals(IntStream.range(0, 5000).toArray(), nrs.get().toArray());
+        assertEquals(5000, nrs.get().parallel().count());
+        assertEquals(5000, pulls.get());
+    }
+
+    @Test
+    public void testReplayLong() {
+        Random rnd = new Random();
+        Supplier<LongStream> nrs = Replayer.replayLong(() -> LongStream.generate(rnd::nextLong));
+        long[] expected = nrs.get().limit(2000).toArray();
+        assertArrayEquals(expected, nrs.get().limit(2000).toArray());
+        assertEquals(LongStream.of(expected).sum(), nrs.get().limit(2000).sum());
+    }
+
+    @Test
+    public void testReplayDouble() {
+        Random rnd = new Random();
+        Supplier<DoubleStream> nrs = Replayer.replayDouble(rnd.doubles(3000));
+        double[] expected = nrs.get().toArray();
+        assertEquals(3000, expected.length);
+        assertArrayEquals(expected, nrs.get().toArray());
+        assertArrayEquals(expected, nrs.get().parallel().toArray());
+    }
+
+    @Test
+    public void testReplayBoxedNumbers() {
+        Random rnd = new Random();
+        Supplier<Stream<Double>> nrs = Replayer.replay(rnd.doubles(3000).boxed());
+        Double[] expected = nrs.get().toArray(Double[]::new);
+        assertArrayEquals(expected, nrs.get().toArray());
+        assertArrayEquals(expected, nrs.get().parallel().toArray());
+    }
+
+    @Test
+    public void testReplayMixedItemsAfterBoxedNumbers() {
+        Object[] expected = concat(
+                IntStream.range(0, 2000).boxed(),
+                Stream.of(null, 7L, "seven", 7.0, 7)).toArray();
+        Supplier<Stream<Object>> items = Replayer.replay(Stream.of(expected));
+        assertArrayEquals(
+                IntStream.range(0, 1000).boxed().toArray(),
+                items.get().limit(1000).toArray());
+        assertArrayEquals(expected, items.get().toArray());
+        assertArrayEquals(expected, items.get().toArray());
+    }
+
+    @Test
+    public void testSplitPartiallyMemoizedReplay() {
+        Supplier<Stream<Integer>> nrs = Replayer.replay(IntStream.range(0, 10_000).boxed());
+        nrs.get().limit(4000).forEach(n -> {});
+        Spliterator<Integer> iter = nrs.get().spliterator();
+        Spliterator<Integer> prefix = iter.trySplit();
+        assertTrue(prefix.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        long memoized = prefix.estimateSize();
+        assertTrue(memoized >= 4000);
+        assertEquals(10_000 - memoized, iter.estimateSize());
+        assertNotNull(prefix.trySplit());
+        assertArrayEquals(
+                IntStream.range(0, 10_000).map(n -> n * 2).boxed().toArray(),
+                nrs.get().parallel().map(n -> n * 2).toArray());
+    }
+
+    @Test
+    public void testLiveIteratorAfterSourceIsComplete() {
+        Supplier<Stream<Integer>> nrs = Replayer.replay(() -> IntStream
+                .range(0, 10_000)
+                .filter(n -> true) // Unknown size
+                .boxed());
+        Spliterator<Integer> iter = nrs.get().spliterator();
+        List<Integer> actual = new ArrayList<>();
+        for (int i = 0; i < 10; i++) iter.tryAdvance(actual::add);
+        assertEquals(10_000, nrs.get().count()); // Completes the Recorder
+        assertEquals(10_000 - 10, iter.estimateSize());
+        Spliterator<Integer> prefix = iter.trySplit();
+        assertEquals(10_000 - 10, prefix.estimateSize() + iter.estimateSize());
+        assertTrue(iter.estimateSize() > 0);
+        prefix.forEachRemaining(actual::add);
+        iter.forEachRemaining(actual::add);
+        assertArrayEquals(IntStream.range(0, 10_000).boxed().toArray(), actual.toArray());
+    }
+
+    @Test
+    public void testCompleteReplayIsImmutable() {
+        Supplier<Stream<String>> words = Replayer.replay(Stream
+                .of("b", "c", "a")
+                .sorted(Comparator.reverseOrder()));
+        assertArrayEquals(new String[] {"c", "b", "a"}, words.get().toArray());
+        Spliterator<String> iter = words.get().spliterator();
+        assertTrue(iter.hasCharacteristics(Spliterator.IMMUTABLE | Spliterator.SIZED));
+        assertEquals(3, iter.estimateSize());
+        assertArrayEquals(new String[] {"a", "b", "c"}, words.get().sorted().toArray());
+    }
+
+    @Test
+    public void testReplayWindowFailsOnEvictedItems() {
+        Supplier<Stream<Integer>> nrs = Replayer.replay(
+                Stream.iterate(0, n -> n + 1),
+                10,
+                Replayer.WindowPolicy.FAIL);
+        Spliterator<Integer> slow = nrs.get().spliterator();
+        slow.tryAdvance(n -> assertEquals(0, (int) n));
+        assertArrayEquals(
+                IntStream.range(0, 100).boxed().toArray(),
+                nrs.get().limit(100).toArray());
+        assertThrows(IllegalStateException.class, () -> slow.tryAdvance(n -> {}));
+        assertThrows(IllegalStateException.class, () -> nrs.get().findFirst());
+    }
+
+    @Test
+    public void testReplayWindowSkipsEvictedItems() {
+        Supplier<Stream<Integer>> nrs = Replayer.replay(
+                Stream.iterate(0, n -> n + 1),
+                10,
+                Replayer.WindowPolicy.SKIP);
+        assertEquals(99, (int) nrs.get().skip(99).findFirst().get());
+        assertArrayEquals(
+                IntStream.range(90, 95).boxed().toArray(),
+                nrs.get().limit(5).toArray());
+    }
+
+    @Test
+    public void testReplayWindowBlocksProducer() throws Exception {
+        Supplier<Stream<Integer>> nrs = Replayer.replay(
+                () -> IntStream.range(0, 1000).boxed(),
+                10,
+                Replayer.WindowPolicy.BLOCK);
+        List<Integer> slow = new ArrayList<>();
+        Spliterator<Integer> iter = nrs.get().spliterator();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object[]> fast = pool.submit(() -> nrs.get().toArray());
+            while (iter.tryAdvance(slow::add))
+                Thread.yield();
+            assertArrayEquals(IntStream.range(0, 1000).boxed().toArray(), fast.get());
+            assertArrayEquals(IntStream.range(0, 1000).boxed().toArray(), slow.toArray());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedReplayReleasesConsumedItems() throws Exception {
+        List<WeakReference<Object>> firstItems = new ArrayList<>();
+        SharedReplay<Object> items = Replayer.share(IntStream
+                .range(0, 100_000)
+                .mapToObj(n -> {
+                    Object item = new Object();
+                    if (n < 10) firstItems.add(new WeakReference<>(item));
+                    return item;
+                }));
+        List<Spliterator<Object>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            readers.add(items.get().spliterator());
+        items.seal();
+        assertThrows(IllegalStateException.class, items::get);
+        ExecutorService pool = Executors.newFixedThreadPool(readers.size());
+        try {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (Spliterator<Object> reader : readers)
+                counts.add(pool.submit(() -> stream(reader, false).count()));
+            for (Future<Long> count : counts)
+                assertEquals(100_000, (long) count.get());
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < 10 && firstItems.stream().anyMatch(ref -> ref.get() != null); i++)
+            System.gc();
+        firstItems.forEach(ref -> assertNull(ref.get()));
+    }
+
+    @Test
+    public void testReplayOffHeap() {
+        String[] expected = IntStream
+                .range(0, 100_000)
+                .mapToObj(n -> n % 7 == 0 ? "\u00e9\u20ac" + n : Integer.toString(n))
+                .toArray(String[]::new);
+        CloseableReplay<String> words = Replayer.replayOffHeap(Stream.of(expected), Codec.ofString());
+        assertArrayEquals(
+                Arrays.copyOf(expected, 10),
+                words.get().limit(10).toArray());
+        assertArrayEquals(expected, words.get().toArray());
+        assertArrayEquals(expected, words.get().parallel().toArray());
+        Stream<String> replay = words.get();
+        words.close();
+        assertThrows(IllegalStateException.class, replay::toArray);
+    }
+
+    @Test
+    public void testReplayOffHeapWithBigItems() {
+        char[] big = new char[3_000_000];
+        Arrays.fill(big, 'x');
+        List<String> expected = List.of("a", new String(big), "b");
+        try (CloseableReplay<String> words = Replayer.replayOffHeap(expected.stream(), Codec.ofString())) {
+            assertEquals(expected, words.get().collect(toList()));
+            assertEquals(expected, words.get().collect(toList()));
+        }
+    }
+
+    @Test
+    public void testReplayOffHeapClosedWhileReading() throws Exception {
+        assertClosedWhileReading(() -> Replayer.replayOffHeap(
+                IntStream.range(0, 100_000).mapToObj(Integer::toString),
+                Codec.ofString()));
+    }
+
+    /**
+     * Closes replays while other threads are reading them, which must either
+     * read the right items or fail with an IllegalStateException.
+     */
+    private static void assertClosedWhileReading(Supplier<CloseableReplay<String>> replays) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                CloseableReplay<String> words = replays.get();
+                CountDownLatch reading = new CountDownLatch(4);
+                List<Future<?>> readers = new ArrayList<>();
+                for (int i = 0; i < 4; i++)
+                    readers.add(threads.submit(() -> {
+                        int[] next = {0};
+                        words.get().forEach(w -> {
+                            if (next[0] == 1_000)
+                                reading.countDown();
+                            assertEquals(Integer.toString(next[0]++), w);
+                        });
+                        reading.countDown();
+                    }));
+                reading.await();
+                words.close();
+                for (Future<?> reader : readers) {
+                    try {
+                        reader.get();
+                    } catch (ExecutionException e) {
+                        assertEquals(IllegalStateException.class, e.getCause().getClass());
+                    }
+                }
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplaySpillingDeletesFilesOnClose() throws IOException {
+        Path tmp = Files.createTempDirectory("spill");
+        try {
+            List<String> expected = IntStream.range(0, 200_000).mapToObj(Integer::toString).collect(toList());
+            try (CloseableReplay<String> nrs = Replayer.replaySpilling(expected.stream(), Codec.ofString(), 1_000, tmp)) {
+                Iterator<String> iter = nrs.get().iterator();
+                assertEquals(expected.subList(0, 100_000), nrs.get().limit(100_000).collect(toList()));
+                for (int i = 0; i < 50_000; i++)
+                    assertEquals(expected.get(i), iter.next());
+                assertEquals(expected, nrs.get().collect(toList()));
+                assertEquals(expected, nrs.get().parallel().collect(toList()));
+                assertTrue(spillFiles(tmp) > 0);
+            }
+            assertEquals(0, spillFiles(tmp));
+            // Closing while the flusher is still writing
+            for (int round = 0; round < 20; round++) {
+                try (CloseableReplay<String> nrs = Replayer.replaySpilling(expected.stream(), Codec.ofString(), 1_000, tmp)) {
+                    assertEquals("199999", nrs.get().skip(199_999).findFirst().get());
+                }
+                assertEquals(0, spillFiles(tmp));
+            }
+        } finally {
+            Files.delete(tmp);
+        }
+    }
+
+    @Test
+    public void testReplaySpillingClosedWhileReading() throws Exception {
+        Path tmp = Files.createTempDirectory("spill");
+        try {
+            assertClosedWhileReading(() -> Replayer.replaySpilling(
+                    IntStream.range(0, 100_000).mapToObj(Integer::toString),
+                    Codec.ofString(),
+                    1_000,
+                    tmp));
+            assertEquals(0, spillFiles(tmp));
+        } finally {
+            Files.delete(tmp);
+        }
+    }
+
+    private static long spillFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("streamemo-")).count();
+        }
+    }
+
+    @Test
+    public void testReplayPrefetchingPullsAheadOfReaders() throws InterruptedException {
+        AtomicInteger pulled = new AtomicInteger();
+        Supplier<Stream<Integer>> nrs = Replayer.replayPrefetching(
+            IntStream.range(0, 10_000).boxed().peek(n -> pulled.incrementAndGet()),
+            64);
+        Iterator<Integer> iter = nrs.get().iterator();
+        assertEquals(Integer.valueOf(0), iter.next());
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (pulled.get() < 8 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(pulled.get() >= 8);
+        Thread.sleep(100);
+        assertTrue(pulled.get() <= 1 + 64); // Stops ahead of an idle reader
+        assertEquals(49_995_000, nrs.get().mapToInt(Integer::intValue).sum());
+        assertEquals(10_000, pulled.get());
+    }
+
+    @Test
+    public void testReplayPrefetchingHonorsASmallLookahead() throws InterruptedException {
+        for (int maxLookahead : new int[] {1, 4}) {
+            AtomicInteger pulled = new AtomicInteger();
+            Supplier<Stream<Integer>> nrs = Replayer.replayPrefetching(
+                IntStream.range(0, 1_000).boxed().peek(n -> pulled.incrementAndGet()),
+                maxLookahead);
+            Iterator<Integer> iter = nrs.get().iterator();
+            assertEquals(Integer.valueOf(0), iter.next());
+            Thread.sleep(100);
+            assertTrue(pulled.get() <= maxLookahead); // Never past demand plus maxLookahead
+            assertEquals(499_500, nrs.get().mapToInt(Integer::intValue).sum());
+            assertEquals(1_000, pulled.get());
+        }
+    }
+
+    @Test
+    public void testReplayPrefetchingReportsSourceFailures() {
+        Supplier<Stream<Integer>> nrs = Replayer.replayPrefetching(
+            IntStream.range(0, 100).boxed().peek(n -> {
+                if (n == 50) throw new IllegalArgumentException("Boom");
+            }),
+            16);
+        assertThrows(IllegalArgumentException.class, () -> nrs.get().forEach(n -> {}));
+    }
+
+    @Test
+    public void testReplayDoesNotPinVirtualThreads() throws Exception {
+        ExecutorService threads = newVirtualThreadPerTaskExecutor();
+        assumeTrue(threads != null, "Virtual threads need JDK 21 or later");
+        Path dump = Files.createTempFile("pinned", ".jfr");
+        Supplier<Stream<Integer>> nrs = Replayer.replay(IntStream.range(0, 1_000).boxed().peek(n -> sleep(1)));
+        try (Recording jfr = new Recording()) {
+            jfr.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+            jfr.start();
+            List<Future<Integer>> sums = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++)
+                sums.add(threads.submit(() -> nrs.get().mapToInt(Integer::intValue).sum()));
+            for (Future<Integer> sum : sums)
+                assertEquals(499_500, sum.get().intValue());
+            jfr.stop();
+            jfr.dump(dump);
+            long pinned = RecordingFile.readAllEvents(dump).stream()
+                .filter(e -> e.getEventType().getName().equals("jdk.VirtualThreadPinned"))
+                .count();
+            assertEquals(0, pinned);
+        } finally {
+            threads.shutdown();
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @Test
+    public void testReplayEmitsFlightRecorderEvents() throws Exception {
+        Path dump = Files.createTempFile("replay", ".jfr");
+        Supplier<Stream<Integer>> nrs = Replayer.replay(() -> Stream.iterate(0, n -> n < 5_000, n -> n + 1));
+        try (Recording jfr = new Recording()) {
+            jfr.enable("org.javasync.streams.SourcePull");
+            jfr.enable("org.javasync.streams.SegmentAllocation");
+            jfr.enable("org.javasync.streams.ReplayComplete");
+            jfr.start();
+            assertEquals(12_497_500, nrs.get().mapToInt(Integer::intValue).sum());
+            assertEquals(12_497_500, nrs.get().mapToInt(Integer::intValue).sum());
+            jfr.stop();
+            jfr.dump(dump);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+            assertEquals(5_000, events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.javasync.streams.SourcePull"))
+                .mapToLong(e -> e.getLong("items"))
+                .sum());
+            assertEquals(5, events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.javasync.streams.SegmentAllocation"))
+                .count());
+            List<RecordedEvent> completions = events.stream()
+                .filter(e -> e.getEventType().getName().equals("org.javasync.streams.ReplayComplete"))
+                .collect(toList());
+            assertEquals(1, completions.size());
+            assertEquals(5_000, completions.get(0).getLong("size"));
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @Test
+    public void testReplayPullEventsAreOffByDefault() throws Exception {
+        Path dump = Files.createTempFile("replay", ".jfr");
+        Supplier<Stream<Integer>> nrs = Replayer.replay(() -> Stream.iterate(0, n -> n < 5_000, n -> n + 1));
+        try (Recording jfr = new Recording(Configuration.getConfiguration("default"))) {
+            jfr.start();
+            assertEquals(12_497_500, nrs.get().mapToInt(Integer::intValue).sum());
+            jfr.stop();
+            jfr.dump(dump);
+            List<String> names = RecordingFile.readAllEvents(dump).stream()
+                .map(e -> e.getEventType().getName())
+                .filter(name -> name.startsWith("org.javasync.streams."))
+                .collect(toList());
+            assertEquals(List.of("org.javasync.streams.ReplayComplete"), names);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testPublishedReplayToFastAndStalledSubscribers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            PublishedReplay<Integer> nrs = Replayer.publish(IntStream.range(0, 10_000).boxed(), executor);
+            CollectingSubscriber<Integer> stalled = new CollectingSubscriber<>(1, false);
+            CollectingSubscriber<Integer> fast = new CollectingSubscriber<>(100, true);
+            nrs.subscribe(stalled);
+            nrs.subscribe(fast);
+            fast.done.get(10, TimeUnit.SECONDS);
+            assertEquals(nrs.get().collect(toList()), fast.items);
+            assertEquals(Integer.valueOf(0), stalled.first.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of(0), stalled.items);
+            assertNull(stalled.done.getNow(null));
+            CollectingSubscriber<Integer> invalid = new CollectingSubscriber<>(0, false);
+            nrs.subscribe(invalid);
+            assertThrows(ExecutionException.class, () -> invalid.done.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPublishedReplaySignalsOnlyAfterOnSubscribeReturns() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            PublishedReplay<Integer> nrs = Replayer.publish(IntStream.range(0, 100).boxed(), executor);
+            for (int round = 0; round < 5; round++) {
+                AtomicBoolean subscribed = new AtomicBoolean();
+                CompletableFuture<Integer> done = new CompletableFuture<>();
+                nrs.subscribe(new Flow.Subscriber<Integer>() {
+                    int count;
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscription.request(Long.MAX_VALUE);
+                        sleep(20);
+                        subscribed.set(true);
+                    }
+                    public void onNext(Integer item) {
+                        if (!subscribed.get())
+                            done.completeExceptionally(new AssertionError("onNext before onSubscribe returned"));
+                        count++;
+                    }
+                    public void onError(Throwable throwable) {
+                        done.completeExceptionally(throwable);
+                    }
+                    public void onComplete() {
+                        done.complete(count);
+                    }
+                });
+                assertEquals(100, done.get(10, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Requests batch items on subscription and, if more, again after each
+     * batch.
+     */
+    private static class CollectingSubscriber<T> implements Flow.Subscriber<T> {
+        final List<T> items = new ArrayList<>();
+        final CompletableFuture<T> first = new CompletableFuture<>();
+        final CompletableFuture<List<T>> done = new CompletableFuture<>();
+        final int batch;
+        final boolean more;
+        Flow.Subscription subscription;
+
+        CollectingSubscriber(int batch, boolean more) {
+            this.batch = batch;
+            this.more = more;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+            first.complete(item);
+            if (more && items.size() % batch == 0)
+                subscription.request(batch);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(items);
+        }
+    }
+
+    @Test
+    public void testReplayCompletableFuture() throws Exception {
+        CompletableFuture<Stream<Integer>> future = new CompletableFuture<>();
+        AsyncReplay<Integer> nrs = Replayer.replay(future);
+        CompletableFuture<Integer> item = nrs.getAsync(1_000).toCompletableFuture();
+        CompletableFuture<Integer> missing = nrs.getAsync(10_000).toCompletableFuture();
+        assertTrue(!item.isDone()); // Does not block the caller
+        future.complete(IntStream.range(0, 10_000).boxed());
+        assertEquals(Integer.valueOf(1_000), item.get(10, TimeUnit.SECONDS));
+        assertEquals(49_995_000, nrs.get().mapToInt(Integer::intValue).sum());
+        assertEquals(49_995_000, nrs.get().mapToInt(Integer::intValue).sum());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> missing.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void testGetAsyncOfCompletedStageDoesNotPullOnCaller() throws Exception {
+        Thread caller = Thread.currentThread();
+        AtomicBoolean pulledOnCaller = new AtomicBoolean();
+        AsyncReplay<Integer> nrs = Replayer.replay(CompletableFuture.completedFuture(IntStream.range(0, 1_000)
+                .boxed()
+                .peek(n -> {
+                    if (Thread.currentThread() == caller)
+                        pulledOnCaller.set(true);
+                })));
+        CompletableFuture<Integer> item = nrs.getAsync(100).toCompletableFuture();
+        assertEquals(Integer.valueOf(100), item.get(10, TimeUnit.SECONDS));
+        assertFalse(pulledOnCaller.get());
+    }
+
+    @Test
+    public void testClosingAsyncReplayEndsLaterReplaysAtMemoizedItems() throws Exception {
+        AsyncReplay<Integer> nrs = Replayer.replay(CompletableFuture.completedFuture(IntStream.range(0, 10_000).boxed()));
+        try (Stream<Integer> nrs1 = nrs.get()) {
+            assertEquals(10, nrs1.limit(10).count());
+        }
+        long memoized = nrs.get().count(); // Does not throw
+        assertTrue(memoized >= 10 && memoized < 10_000);
+        assertEquals(memoized, nrs.get().count());
+        assertEquals(Integer.valueOf(0), nrs.getAsync(0).toCompletableFuture().get(10, TimeUnit.SECONDS));
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> nrs.getAsync(memoized).toCompletableFuture().get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void testReplayPublisherWithBoundedDemand() throws Exception {
+        AtomicLong requested = new AtomicLong();
+        try (SubmissionPublisher<Integer> src = new SubmissionPublisher<>()) {
+            Flow.Publisher<Integer> counted = subscriber -> src.subscribe(new Flow.Subscriber<Integer>() {
+                public void onSubscribe(Flow.Subscription s) {
+                    subscriber.onSubscribe(new Flow.Subscription() {
+                        public void request(long n) {
+                            requested.addAndGet(n);
+                            s.request(n);
+                        }
+                        public void cancel() {
+                            s.cancel();
+                        }
+                    });
+                }
+                public void onNext(Integer item) { subscriber.onNext(item); }
+                public void onError(Throwable e) { subscriber.onError(e); }
+                public void onComplete() { subscriber.onComplete(); }
+            });
+            AsyncReplay<Integer> nrs = Replayer.replay(counted);
+            CompletableFuture<Integer> item = nrs.getAsync(10).toCompletableFuture();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (src.getNumberOfSubscribers() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            for (int i = 0; i < 300; i++)
+                src.submit(i); // Does not block while within the buffer of src
+            assertEquals(Integer.valueOf(10), item.get(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertTrue(requested.get() < 300); // Demand only runs a batch ahead of readers
+            assertEquals(Integer.valueOf(299), nrs.getAsync(299).toCompletableFuture().get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testReplayCacheEvictsOverBudget() {
+        AtomicInteger loads = new AtomicInteger();
+        ReplayCache<Integer, Integer> cache = ReplayCache.ofItems(n -> {
+            loads.incrementAndGet();
+            return IntStream.range(0, n).boxed();
+        }, 100);
+        assertEquals(50 * 49 / 2, cache.get(50).get().mapToInt(Integer::intValue).sum());
+        assertEquals(50 * 49 / 2, cache.get(50).get().mapToInt(Integer::intValue).sum());
+        assertEquals(40 * 39 / 2, cache.get(40).get().mapToInt(Integer::intValue).sum());
+        assertEquals(90, cache.weight());
+        assertEquals(0, cache.evictionCount());
+        assertEquals(30 * 29 / 2, cache.get(30).get().mapToInt(Integer::intValue).sum());
+        assertTrue(cache.weight() <= 100);
+        assertTrue(cache.evictionCount() >= 1);
+        assertEquals(1, cache.hitCount());
+        assertEquals(3, cache.missCount());
+        assertEquals(3, loads.get());
+        cache.invalidate(30);
+        cache.invalidate(40);
+        cache.invalidate(50);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testReplayRefreshingSwitchesToNewGeneration() throws InterruptedException {
+        AtomicInteger generation = new AtomicInteger();
+        Supplier<Stream<Integer>> nrs = Replayer.replayRefreshing(() -> {
+            int gen = generation.incrementAndGet();
+            return IntStream.range(0, 100).mapToObj(i -> gen);
+        }, Duration.ofMillis(500), Duration.ofMillis(300), 10);
+        assertEquals(List.of(1), nrs.get().distinct().collect(toList()));
+        assertEquals(List.of(1), nrs.get().distinct().collect(toList()));
+        assertEquals(1, generation.get());
+        Thread.sleep(250); // Within refreshAhead of the expiry
+        long deadline = System.currentTimeMillis() + 5_000;
+        List<Integer> gens;
+        while ((gens = nrs.get().distinct().collect(toList())).equals(List.of(1))
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(List.of(2), gens);
+        assertEquals(2, generation.get());
+    }
+
+    @Test
+    public void testReplayRefreshingReplacesFailedGenerationAndClosesOldOnes() throws InterruptedException {
+        AtomicInteger generation = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        Supplier<Stream<Integer>> nrs = Replayer.replayRefreshing(() -> {
+            int gen = generation.incrementAndGet();
+            return IntStream.range(0, 100).mapToObj(i -> {
+                if (gen == 2 && i >= 5)
+                    throw new IllegalStateException("Generation 2 failed!");
+                return gen;
+            }).onClose(closed::incrementAndGet);
+        }, Duration.ofSeconds(1), Duration.ZERO, 10);
+        Supplier<List<Integer>> gens = () -> {
+            try (Stream<Integer> replay = nrs.get()) {
+                return replay.distinct().collect(toList());
+            } catch (IllegalStateException e) {
+                return List.of(-1);
+            }
+        };
+        assertEquals(List.of(1), gens.get());
+        Thread.sleep(1_050); // Expired, so get() switches to generation 2 before its fill fails
+        long deadline = System.currentTimeMillis() + 500; // Well before generation 2 expires
+        List<Integer> last;
+        while (!(last = gens.get()).equals(List.of(3)) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(List.of(3), last);
+        assertEquals(2, closed.get()); // Generations 1 and 2, without open replays
+    }
+
+    @Test
+    public void testReplayerMXBeanReportsMetrics() throws Exception {
+        assumeTrue(Boolean.getBoolean("org.javasync.streams.metrics"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName replayers = new ObjectName("org.javasync.streams:type=Replayer,*");
+        Set<ObjectName> before = server.queryNames(replayers, null);
+        Supplier<Stream<String>> nrs = Replayer.replay(() -> IntStream.range(0, 100).mapToObj(Integer::toString));
+        Iterator<String> slow = nrs.get().iterator();
+        for (int i = 0; i < 10; i++)
+            slow.next();
+        Set<ObjectName> names = server.queryNames(replayers, null);
+        names.removeAll(before);
+        assertEquals(1, names.size());
+        ReplayerMXBean bean = JMX.newMXBeanProxy(server, names.iterator().next(), ReplayerMXBean.class);
+        assertEquals(10, bean.getItems());
+        assertEquals(10, bean.getPulls());
+        assertFalse(bean.isComplete());
+        assertArrayEquals(new long[] {0}, bean.getCursorLags());
+        assertEquals(4950, nrs.get().mapToInt(Integer::parseInt).sum());
+        assertEquals(4950, nrs.get().mapToInt(Integer::parseInt).sum());
+        assertTrue(bean.isComplete());
+        assertEquals(100, bean.getPulls());
+        assertEquals(110, bean.getHits());
+        assertEquals(800, bean.getRetainedBytes());
+        assertArrayEquals(new long[] {90}, bean.getCursorLags());
+        assertEquals("10", slow.next());
+    }
+
+    @Test
+    public void testReplayCacheLoadsEachKeyOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        ReplayCache<Integer, Integer> cache = ReplayCache.ofItems(n -> {
+            loads.incrementAndGet();
+            return IntStream.range(0, n).boxed().peek(i -> sleep(1));
+        }, 1_000);
+        ExecutorService threads = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> sums = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+                sums.add(threads.submit(() -> cache.get(50).get().mapToInt(Integer::intValue).sum()));
+            for (Future<Integer> sum : sums)
+                assertEquals(50 * 49 / 2, sum.get().intValue());
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.missCount());
+        assertEquals(199, cache.hitCount());
+    }
+
+    @Test
+    public void testReplayCacheKeepsFailuresBriefly() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        ReplayCache<Integer, Integer> cache = ReplayCache.ofItems(n -> {
+            if (loads.incrementAndGet() == 1)
+                throw new IllegalArgumentException("Upstream is down");
+            return IntStream.range(0, n).boxed();
+        }, 1_000, Duration.ofMillis(200));
+        assertThrows(IllegalArgumentException.class, () -> cache.get(10).get().count());
+        for (int i = 0; i < 100; i++)
+            assertThrows(IllegalStateException.class, () -> cache.get(10));
+        assertEquals(1, loads.get());
+        Thread.sleep(250);
+        assertEquals(45, cache.get(10).get().mapToInt(Integer::intValue).sum());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testReplayCacheFailureReachesEveryHolderOnce() {
+        AtomicInteger loads = new AtomicInteger();
+        ReplayCache<Integer, Integer> cache = ReplayCache.ofItems(n -> {
+            loads.incrementAndGet();
+            throw new IllegalArgumentException("Upstream is down");
+        }, 1_000);
+        List<Supplier<Stream<Integer>>> holders = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            holders.add(cache.get(10)); // All before the first traversal
+        assertThrows(IllegalArgumentException.class, () -> holders.get(0).get().count());
+        for (Supplier<Stream<Integer>> holder : holders.subList(1, holders.size())) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> holder.get().count());
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testReplaySoftly() {
+        AtomicInteger calls = new AtomicInteger();
+        try (CloseableReplay<Integer> nrs = Replayer.replaySoftly(() -> {
+            calls.incrementAndGet();
+            return IntStream.range(0, 10_000).boxed();
+        })) {
+            assertEquals(49_995_000, nrs.get().mapToInt(Integer::intValue).sum());
+            assertEquals(49_995_000, nrs.get().parallel().mapToInt(Integer::intValue).sum());
+            assertEquals(Integer.valueOf(9_999), nrs.get().skip(9_999).findFirst().get());
+            assertEquals(1, calls.get()); // Nothing is rebuilt without memory pressure
+        }
+    }
+
+    @Test
+    public void testSaveAndLoadSnapshot() throws IOException {
+        Path file = Files.createTempFile("replay", ".snapshot");
+        try {
+            List<String> expected = IntStream.range(0, 100_000).mapToObj(Integer::toString).collect(toList());
+            Supplier<Stream<String>> nrs = Replayer.replay(expected.stream());
+            Replayer.save(nrs, Codec.ofString(), file);
+            try (CloseableReplay<String> loaded = Replayer.load(file, Codec.ofString())) {
+                assertEquals(expected, loaded.get().collect(toList()));
+                assertEquals(expected, loaded.get().parallel().collect(toList()));
+                assertEquals(expected.size(), loaded.get().spliterator().getExactSizeIfKnown());
+                loaded.close();
+                assertThrows(IllegalStateException.class, loaded::get);
+            }
+            Files.write(file, new byte[] {1, 2, 3});
+            assertThrows(IOException.class, () -> Replayer.load(file, Codec.ofString()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testLoadedSnapshotClosedWhileReading() throws Exception {
+        Path file = Files.createTempFile("replay", ".snapshot");
+        try {
+            Replayer.save(Replayer.replay(IntStream.range(0, 100_000).mapToObj(Integer::toString)), Codec.ofString(), file);
+            assertClosedWhileReading(() -> {
+                try {
+                    return Replayer.load(file, Codec.ofString());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
     @Test
     public void testOnClose() {
     	final AtomicInteger closeCounter = new AtomicInteger();